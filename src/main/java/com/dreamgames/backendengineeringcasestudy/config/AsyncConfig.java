@@ -2,17 +2,30 @@ package com.dreamgames.backendengineeringcasestudy.config;
 
 import java.util.concurrent.Executor;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 @Configuration
 @EnableAsync
 public class AsyncConfig {
+
+    @Value("${spring.threads.virtual.enabled}")
+    private boolean virtualThreadsEnabled;
     
     @Bean("asyncTaskExecutor")
     public Executor asyncTaskExecutor() {
+        if (virtualThreadsEnabled) {
+            // Every task gets its own virtual thread, so a task blocked on MySQL or Redis I/O does not hold a platform thread
+            SimpleAsyncTaskExecutor taskExecutor = new SimpleAsyncTaskExecutor("Thread-");
+            taskExecutor.setVirtualThreads(true);
+
+            return taskExecutor;
+        }
+
         ThreadPoolTaskExecutor taskExecutor = new ThreadPoolTaskExecutor();
         taskExecutor.setCorePoolSize(4);
         taskExecutor.setThreadNamePrefix("Thread-");
@@ -1,11 +1,17 @@
 package com.dreamgames.backendengineeringcasestudy.config;
 
+import java.util.List;
+
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.repository.configuration.EnableRedisRepositories;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
@@ -23,7 +29,11 @@ public class RedisConfig {
 
     @Bean
     public RedisConnectionFactory redisConnectionFactory() {
-        return new LettuceConnectionFactory(host, Integer.parseInt(port));
+        LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(host, Integer.parseInt(port));
+        // Every template multiplexes its commands over a single shared connection; 
+        // only the pipelines and the blocking commands take a dedicated connection
+        connectionFactory.setShareNativeConnection(true);
+        return connectionFactory;
     }
 
     @Bean
@@ -37,9 +47,128 @@ public class RedisConfig {
         template.setHashKeySerializer(new StringRedisSerializer());
         template.setHashValueSerializer(new JdkSerializationRedisSerializer());
 
-        template.setEnableTransactionSupport(true);
+        // No transaction support: it binds a connection to every thread that takes part in a @Transactional method, 
+        // so that the commands cannot share the native connection. The atomic operations are performed by the Lua scripts instead
+        template.setEnableTransactionSupport(false);
 
         return template;
     }
-    
-}
\ No newline at end of file
+
+    /** Template for the plain string values that are manipulated by the Lua scripts (counters, hashes of numbers) */
+    @Bean
+    public StringRedisTemplate stringRedisTemplate() {
+        return new StringRedisTemplate(redisConnectionFactory());
+    }
+
+    /** Delivers the messages published on the Redis pub/sub channels to the subscribed listeners */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer() {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(redisConnectionFactory());
+
+        return container;
+    }
+
+    /** Pops the members of as many groups as possible from the country waiting queues and records them in the outbox, see scripts/form_groups.lua */
+    @Bean
+    public RedisScript<Long> formGroupsScript() {
+        return RedisScript.of(new ClassPathResource("scripts/form_groups.lua"), Long.class);
+    }
+
+    /** Increments the cached progress of a user and records the level up for the write-behind flush, see scripts/level_up.lua */
+    @Bean
+    @SuppressWarnings("rawtypes")
+    public RedisScript<List> levelUpScript() {
+        return RedisScript.of(new ClassPathResource("scripts/level_up.lua"), List.class);
+    }
+
+    /** Caches the progress of a user if it is not cached yet, see scripts/init_user_progress.lua */
+    @Bean
+    public RedisScript<Long> initUserProgressScript() {
+        return RedisScript.of(new ClassPathResource("scripts/init_user_progress.lua"), Long.class);
+    }
+
+    /** Counts a change in coins that is about to be persisted, see scripts/begin_coin_changes.lua */
+    @Bean
+    @SuppressWarnings("rawtypes")
+    public RedisScript<List> beginCoinChangesScript() {
+        return RedisScript.of(new ClassPathResource("scripts/begin_coin_changes.lua"), List.class);
+    }
+
+    /** Applies a change in coins to the cached progress of users, see scripts/adjust_user_coins.lua */
+    @Bean
+    public RedisScript<Long> adjustUserCoinsScript() {
+        return RedisScript.of(new ClassPathResource("scripts/adjust_user_coins.lua"), Long.class);
+    }
+
+    /** Takes the pending level ups for a write-behind flush, see scripts/drain_level_ups.lua */
+    @Bean
+    @SuppressWarnings("rawtypes")
+    public RedisScript<List> drainLevelUpsScript() {
+        return RedisScript.of(new ClassPathResource("scripts/drain_level_ups.lua"), List.class);
+    }
+
+    /** Acknowledges a write-behind flush, see scripts/ack_level_ups.lua */
+    @Bean
+    public RedisScript<Long> ackLevelUpsScript() {
+        return RedisScript.of(new ClassPathResource("scripts/ack_level_ups.lua"), Long.class);
+    }
+
+    /** Increments the group and country scores of a user, see scripts/increment_tournament_score.lua */
+    @Bean
+    public RedisScript<Long> incrementTournamentScoreScript() {
+        return RedisScript.of(new ClassPathResource("scripts/increment_tournament_score.lua"), Long.class);
+    }
+
+    /** Reads a group leaderboard ordered by score, see scripts/read_group_leaderboard.lua */
+    @Bean
+    @SuppressWarnings("rawtypes")
+    public RedisScript<List> readGroupLeaderboardScript() {
+        return RedisScript.of(new ClassPathResource("scripts/read_group_leaderboard.lua"), List.class);
+    }
+
+    /** Finds the rank of a user in a cached group leaderboard, see scripts/rank_in_group.lua */
+    @Bean
+    public RedisScript<Long> rankInGroupScript() {
+        return RedisScript.of(new ClassPathResource("scripts/rank_in_group.lua"), Long.class);
+    }
+
+    /** Checks the participant set of the active tournament, see scripts/is_participant.lua */
+    @Bean
+    public RedisScript<Long> isParticipantScript() {
+        return RedisScript.of(new ClassPathResource("scripts/is_participant.lua"), Long.class);
+    }
+
+    /** Reads the unclaimed rewards of a user from the unclaimed reward index, see scripts/get_unclaimed_reward.lua */
+    @Bean
+    public RedisScript<Long> getUnclaimedRewardScript() {
+        return RedisScript.of(new ClassPathResource("scripts/get_unclaimed_reward.lua"), Long.class);
+    }
+
+    /** Adds a user to a country waiting queue and wakes up the group formers if a group can be formed, see scripts/enter_country_queue.lua */
+    @Bean
+    public RedisScript<Long> enterCountryQueueScript() {
+        return RedisScript.of(new ClassPathResource("scripts/enter_country_queue.lua"), Long.class);
+    }
+
+    /** Removes the members of the groups formed by the in-process matchmaker from the country waiting queues and records them in the outbox, see scripts/claim_group_members.lua */
+    @Bean
+    @SuppressWarnings("rawtypes")
+    public RedisScript<List> claimGroupMembersScript() {
+        return RedisScript.of(new ClassPathResource("scripts/claim_group_members.lua"), List.class);
+    }
+
+    /** Acquires or renews the group formation leader lease, see scripts/acquire_leadership.lua */
+    @Bean
+    @SuppressWarnings("rawtypes")
+    public RedisScript<List> acquireLeadershipScript() {
+        return RedisScript.of(new ClassPathResource("scripts/acquire_leadership.lua"), List.class);
+    }
+
+    /** Releases a lease if it is still held by the caller, see scripts/release_lease.lua */
+    @Bean
+    public RedisScript<Long> releaseLeaseScript() {
+        return RedisScript.of(new ClassPathResource("scripts/release_lease.lua"), Long.class);
+    }
+
+}
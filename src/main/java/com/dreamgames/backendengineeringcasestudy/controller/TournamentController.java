@@ -1,6 +1,7 @@
 package com.dreamgames.backendengineeringcasestudy.controller;
 
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,15 +35,17 @@ public class TournamentController {
 
     // EnterTournamentRequest
     @PostMapping("/v1/tournament/enter")
-    public ResponseEntity<LeaderboardDTO> enterTournament(@RequestHeader(value="Authorization") String bearer) {
+    public CompletableFuture<ResponseEntity<LeaderboardDTO>> enterTournament(@RequestHeader(value="Authorization") String bearer) {
         AuthJSON authJSON = securityService.decode(bearer);
         UUID userID = authJSON.getUserID();
 
         User user = userService.getUser(userID);
 
-        LeaderboardDTO leaderboardDTO = tournamentService.enterTournament(user);
-        logger.info("User with id %s enters the tournament".formatted(userID));
-        return new ResponseEntity<>(leaderboardDTO, HttpStatus.OK);
+        // The request thread is released here, the response is written once the user is assigned to a group 
+        return tournamentService.enterTournament(user).thenApply(leaderboardDTO -> {
+            logger.info("User with id %s enters the tournament".formatted(userID));
+            return new ResponseEntity<>(leaderboardDTO, HttpStatus.OK);
+        });
     }
 
     // GetCountryLeaderboardRequest
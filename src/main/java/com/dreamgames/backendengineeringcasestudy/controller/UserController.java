@@ -95,8 +95,7 @@ public class UserController {
         AuthJSON authJSON = securityService.decode(bearer);
         UUID userID = authJSON.getUserID();
 
-        tournamentService.claimReward(userID);
-        UserResponseDTO progress = userService.getUserProgress(userID);
+        UserResponseDTO progress = tournamentService.claimReward(userID);
 
         return new ResponseEntity<>(progress, HttpStatus.OK);    
     }
@@ -68,10 +68,8 @@ public class LeaderboardDTO {
         UserInGroup newUser = new UserInGroup(userID, username, country, score);
         
         try {
+            // The group leaderboard is read from Redis in the order of the scores, it does not need to be sorted
             this.groupLeaderboard.add(newUser);
-            if (groupLeaderboard.size() == 5) {
-                sortLeaderboard();
-            }
 
             return true;
         } catch (Exception e) {
@@ -0,0 +1,23 @@
+package com.dreamgames.backendengineeringcasestudy.dto;
+
+import java.util.Map;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/** A batch of the pending level ups and their tournament scores taken for a write-behind flush, see LevelUpFlushScheduler */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class LevelUpBatchDTO {
+
+    /** ID of the batch, the same in every retry of the batch so that it is persisted only once */
+    private String batchID;
+
+    /** Map of (userID, number of level ups) */
+    private Map<String, Long> levelUps;
+
+    /** Map of ('groupID:userID', tournament score), the scores of the level ups that happened while the tournament of the group was active */
+    private Map<String, Long> scoreUps;
+}
@@ -1,10 +1,10 @@
 package com.dreamgames.backendengineeringcasestudy.entity;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 
+import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
-import jakarta.persistence.GeneratedValue;
-import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.Table;
 import lombok.AllArgsConstructor;
@@ -18,9 +18,13 @@ import lombok.NoArgsConstructor;
 @Table(name = "tournament_group")
 public class TournamentGroup {
 
+    // Allocated by the application in blocks, see TournamentGroupRepositoryCustom
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long group_id;
 
     private LocalDateTime date_formed;
+
+    // Set by the set_date_formed trigger
+    @Column(insertable = false, updatable = false)
+    private LocalDate tournament_date;
 }
@@ -3,6 +3,7 @@ package com.dreamgames.backendengineeringcasestudy.entity;
 import java.io.Serializable;
 import java.util.UUID;
 
+import jakarta.persistence.Column;
 import jakarta.persistence.Embeddable;
 import jakarta.persistence.EmbeddedId;
 import jakarta.persistence.Entity;
@@ -29,6 +30,10 @@ public class UserInTournament implements Serializable {
 
     private Boolean is_reward_claimed = true;
 
+    // Set by the rank materialization once the tournament has ended
+    @Column(insertable = false, updatable = false)
+    private Integer final_rank;
+
     @PrePersist
     @PreUpdate
     public void validate() {
@@ -0,0 +1,27 @@
+package com.dreamgames.backendengineeringcasestudy.repository;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/** Allocation of the group IDs and bulk inserts of the new groups that are executed as JDBC batches, see TournamentGroupRepositoryCustomImpl */
+public interface TournamentGroupRepositoryCustom {
+
+    /**
+     * Reserve a block of consecutive group IDs from the group_id_sequence table, the reservation is committed at once
+     * @param count Number of the group IDs in the block
+     * @return The first group ID of the block
+     */
+    long allocateGroupIDs(int count);
+
+    /**
+     * Insert the groups of the group formation events with their members, collect the entrance fees of the members and record the events as applied
+     * in a single transaction of JDBC batches. The events that are already applied are skipped with their groups, so an event can be stored again
+     * without charging the fees twice; a group ID that is already stored by another event fails the transaction with a duplicate key
+     * @param groupMembersByEvent Map of (event ID, map of (group ID, user IDs of the group members))
+     * @param entranceFee Coins taken from every member
+     * @return IDs of the events applied by this call
+     */
+    Set<String> insertGroups(Map<String, Map<Long, List<UUID>>> groupMembersByEvent, int entranceFee);
+}
@@ -0,0 +1,90 @@
+package com.dreamgames.backendengineeringcasestudy.repository;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.dreamgames.backendengineeringcasestudy.util.UUIDUtil;
+
+import jakarta.transaction.Transactional;
+import lombok.RequiredArgsConstructor;
+
+@RequiredArgsConstructor
+public class TournamentGroupRepositoryCustomImpl implements TournamentGroupRepositoryCustom {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public long allocateGroupIDs(int count) {
+        // LAST_INSERT_ID(expr) returns the incremented value to the same connection only, so both statements are run on one connection;
+        // the row is locked only by the single auto-committed UPDATE, not for the duration of the group inserts
+        return jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+            try (PreparedStatement update = connection.prepareStatement("UPDATE group_id_sequence SET next_id = LAST_INSERT_ID(next_id + ?) WHERE id = 1")) {
+                update.setInt(1, count);
+                if (update.executeUpdate() != 1) {
+                    throw new IllegalStateException("The group_id_sequence table is not initialized");
+                }
+            }
+            try (PreparedStatement select = connection.prepareStatement("SELECT LAST_INSERT_ID()"); 
+                 ResultSet resultSet = select.executeQuery()) {
+                resultSet.next();
+                return resultSet.getLong(1) - count;
+            }
+        });
+    }
+
+    @Override
+    @Transactional
+    public Set<String> insertGroups(Map<String, Map<Long, List<UUID>>> groupMembersByEvent, int entranceFee) {
+        // A concurrent insert of the same events fails with a duplicate key and rolls back, its retry skips them here
+        String placeholders = String.join(",", Collections.nCopies(groupMembersByEvent.size(), "?"));
+        Set<String> appliedEventIDs = new HashSet<>(jdbcTemplate.queryForList(
+            "SELECT event_id FROM applied_group_formation WHERE event_id IN (" + placeholders + ")",
+            String.class, groupMembersByEvent.keySet().toArray()
+        ));
+
+        Set<String> newEventIDs = new HashSet<>();
+        List<Object[]> eventArgs = new ArrayList<>();
+        List<Object[]> groupArgs = new ArrayList<>();
+        List<Object[]> memberArgs = new ArrayList<>();
+        List<Object[]> feeArgs = new ArrayList<>();
+        groupMembersByEvent.forEach((eventID, groupMembers) -> {
+            if (appliedEventIDs.contains(eventID)) {
+                return;
+            }
+            newEventIDs.add(eventID);
+            eventArgs.add(new Object[] { eventID });
+            groupMembers.forEach((groupID, userIDs) -> {
+                groupArgs.add(new Object[] { groupID });
+                for (UUID userID : userIDs) {
+                    byte[] userIDBytes = UUIDUtil.toBytes(userID);
+                    memberArgs.add(new Object[] { groupID, userIDBytes });
+                    feeArgs.add(new Object[] { entranceFee, userIDBytes });
+                }
+            });
+        });
+
+        // With rewriteBatchedStatements, the inserts are sent as multi-row INSERTs and the updates as a single multi-statement round trip;
+        // date_formed and tournament_date are set by the set_date_formed trigger
+        if (eventArgs.isEmpty()) {
+            return newEventIDs;
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO applied_group_formation (event_id, applied_at) VALUES (?, UTC_TIMESTAMP())", eventArgs);
+        jdbcTemplate.batchUpdate("INSERT INTO tournament_group (group_id) VALUES (?)", groupArgs);
+        jdbcTemplate.batchUpdate("INSERT INTO user_in_tournament (group_id, user_id) VALUES (?, ?)", memberArgs);
+        jdbcTemplate.batchUpdate("UPDATE user SET coins = coins - ? WHERE user_id = ?", feeArgs);
+
+        // A pending event is moved to the dead letters after outbox.maxDeliveries deliveries, so the events applied a day ago can never be stored again
+        jdbcTemplate.update("DELETE FROM applied_group_formation WHERE applied_at < UTC_TIMESTAMP() - INTERVAL 1 DAY");
+        return newEventIDs;
+    }
+}
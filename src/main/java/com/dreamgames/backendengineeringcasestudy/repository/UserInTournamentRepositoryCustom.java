@@ -0,0 +1,60 @@
+package com.dreamgames.backendengineeringcasestudy.repository;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/** Bulk reads of the tournament participants that are streamed over plain JDBC, see UserInTournamentRepositoryCustomImpl */
+public interface UserInTournamentRepositoryCustom {
+
+    /**
+     * Find the smallest and the largest IDs of the groups formed in the tournament
+     * @param tournamentDate
+     * @return {minimum group ID, maximum group ID}, or null if no group is formed yet
+     */
+    long[] findGroupIDRangeInTournament(LocalDate tournamentDate);
+
+    /**
+     * Rank the users in the groups of the tournament whose IDs are in the given range and store their final ranks and rewards in a single transaction.
+     * The rank of a user is the number of users with a higher score in the group plus one, the reward is given by the place of the user's score
+     * among the distinct scores of the group so that the tied users share the place. The users who are ranked already are skipped, 
+     * so a range can be distributed again after a failure without giving a reward twice
+     * @param tournamentDate
+     * @param minGroupID Inclusive
+     * @param maxGroupID Inclusive
+     * @param rewardsByPlace Map of (place of the score, reward), the users in the other places get no reward
+     * @return Rows of {user ID, reward} for every user ranked by this call
+     */
+    List<Object[]> distributeRewardsInTournament(LocalDate tournamentDate, long minGroupID, long maxGroupID, Map<Integer, Integer> rewardsByPlace);
+
+    /**
+     * Stream the details of the users in the groups of the tournament whose IDs are in the given range, without loading them into the memory at once
+     * @param tournamentDate
+     * @param minGroupID Inclusive
+     * @param maxGroupID Inclusive
+     * @param rowHandler Called for every row of {group ID, user ID, username, country, score}
+     * @return Number of the streamed rows
+     */
+    long streamUserDetailsInTournament(LocalDate tournamentDate, long minGroupID, long maxGroupID, Consumer<Object[]> rowHandler);
+
+    /**
+     * Stream the details of the users in the groups of the tournament that any of the given users is a member of
+     * @param tournamentDate
+     * @param userIDs
+     * @param rowHandler Called for every row of {group ID, user ID, username, country, score}
+     * @return Number of the streamed rows
+     */
+    long streamGroupsOfUsersInTournament(LocalDate tournamentDate, List<UUID> userIDs, Consumer<Object[]> rowHandler);
+
+    /**
+     * Stream the IDs of the users in the groups of the tournament whose IDs are in the given range
+     * @param tournamentDate
+     * @param minGroupID Inclusive
+     * @param maxGroupID Inclusive
+     * @param rowHandler Called for every row of {user ID}
+     * @return Number of the streamed rows
+     */
+    long streamUserIDsInTournament(LocalDate tournamentDate, long minGroupID, long maxGroupID, Consumer<Object[]> rowHandler);
+}
@@ -0,0 +1,191 @@
+package com.dreamgames.backendengineeringcasestudy.repository;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.dreamgames.backendengineeringcasestudy.util.UUIDUtil;
+
+import jakarta.transaction.Transactional;
+import lombok.RequiredArgsConstructor;
+
+@RequiredArgsConstructor
+public class UserInTournamentRepositoryCustomImpl implements UserInTournamentRepositoryCustom {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public long[] findGroupIDRangeInTournament(LocalDate tournamentDate) {
+        return jdbcTemplate.query(
+            "SELECT MIN(group_id), MAX(group_id) FROM tournament_group " +
+            "WHERE tournament_date = ?",
+            resultSet -> {
+                resultSet.next();
+                long minGroupID = resultSet.getLong(1);
+                return resultSet.wasNull() ? null : new long[] { minGroupID, resultSet.getLong(2) };
+            },
+            Date.valueOf(tournamentDate)
+        );
+    }
+
+    @Override
+    @Transactional
+    public List<Object[]> distributeRewardsInTournament(LocalDate tournamentDate, long minGroupID, long maxGroupID, Map<Integer, Integer> rewardsByPlace) {
+        // Every group in the range is ranked in a single pass over the primary key, the window covers the ranked users as well 
+        List<Object[]> rankedUsers = jdbcTemplate.query(
+            "SELECT group_id, user_id, group_rank, score_place FROM " +
+            "(SELECT uit.group_id, uit.user_id, uit.final_rank, " +
+            "RANK() OVER w AS group_rank, DENSE_RANK() OVER w AS score_place " +
+            "FROM user_in_tournament uit " +
+            "JOIN tournament_group tg ON uit.group_id = tg.group_id " +
+            "WHERE uit.group_id BETWEEN ? AND ? AND tg.tournament_date = ? " +
+            "WINDOW w AS (PARTITION BY uit.group_id ORDER BY uit.score DESC)) ranked " +
+            "WHERE ranked.final_rank IS NULL",
+            (resultSet, rowNum) -> new Object[] { 
+                resultSet.getLong(1), resultSet.getBytes(2), resultSet.getInt(3), resultSet.getInt(4) 
+            },
+            minGroupID, maxGroupID, Date.valueOf(tournamentDate)
+        );
+        if (rankedUsers.isEmpty()) {
+            return List.of();
+        }
+
+        List<Object[]> batchArgs = new ArrayList<>(rankedUsers.size());
+        for (Object[] rankedUser : rankedUsers) {
+            int reward = rewardsByPlace.getOrDefault((Integer) rankedUser[3], 0);
+            batchArgs.add(new Object[] { rankedUser[2], reward, reward == 0, rankedUser[0], rankedUser[1] });
+        }
+
+        // Each row is updated by its primary key; a row that is ranked in the mean time by another node is not updated again
+        int[] updateCounts = jdbcTemplate.batchUpdate(
+            "UPDATE user_in_tournament SET final_rank = ?, reward = ?, is_reward_claimed = ? " +
+            "WHERE group_id = ? AND user_id = ? AND final_rank IS NULL",
+            batchArgs
+        );
+
+        List<Object[]> distributedRewards = new ArrayList<>();
+        for (int i = 0; i < updateCounts.length; i++) {
+            if (updateCounts[i] != 0) {
+                Object[] args = batchArgs.get(i);
+                distributedRewards.add(new Object[] { UUIDUtil.fromBytes((byte[]) args[4]), args[1] });
+            }
+        }
+        return distributedRewards;
+    }
+
+    @Override
+    public long streamUserDetailsInTournament(LocalDate tournamentDate, long minGroupID, long maxGroupID, Consumer<Object[]> rowHandler) {
+        AtomicLong rowCount = new AtomicLong();
+
+        jdbcTemplate.query(
+            connection -> {
+                PreparedStatement statement = connection.prepareStatement(
+                    "SELECT uit.group_id, uit.user_id, u.username, u.country, uit.score FROM user_in_tournament uit " +
+                    "JOIN user u ON uit.user_id = u.user_id " +
+                    "JOIN tournament_group tg ON uit.group_id = tg.group_id " +
+                    "WHERE uit.group_id BETWEEN ? AND ? " +
+                    "AND tg.tournament_date = ?",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY
+                );
+                // MySQL Connector/J streams a forward-only, read-only result set row by row only if the fetch size is Integer.MIN_VALUE
+                statement.setFetchSize(Integer.MIN_VALUE);
+
+                statement.setLong(1, minGroupID);
+                statement.setLong(2, maxGroupID);
+                statement.setDate(3, Date.valueOf(tournamentDate));
+                return statement;
+            },
+            resultSet -> {
+                rowHandler.accept(mapUserDetails(resultSet));
+                rowCount.incrementAndGet();
+            }
+        );
+
+        return rowCount.get();
+    }
+
+    @Override
+    public long streamGroupsOfUsersInTournament(LocalDate tournamentDate, List<UUID> userIDs, Consumer<Object[]> rowHandler) {
+        AtomicLong rowCount = new AtomicLong();
+        String placeholders = String.join(",", Collections.nCopies(userIDs.size(), "?"));
+
+        jdbcTemplate.query(
+            connection -> {
+                PreparedStatement statement = connection.prepareStatement(
+                    "SELECT uit.group_id, uit.user_id, u.username, u.country, uit.score FROM user_in_tournament uit " +
+                    "JOIN user u ON uit.user_id = u.user_id " +
+                    "WHERE uit.group_id IN " +
+                    "(SELECT uit2.group_id FROM user_in_tournament uit2 " +
+                    "JOIN tournament_group tg ON uit2.group_id = tg.group_id " +
+                    "WHERE uit2.user_id IN (" + placeholders + ") " +
+                    "AND tg.tournament_date = ?)",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY
+                );
+                statement.setFetchSize(Integer.MIN_VALUE);
+
+                int index = 1;
+                for (UUID userID : userIDs) {
+                    statement.setBytes(index++, UUIDUtil.toBytes(userID));
+                }
+                statement.setDate(index, Date.valueOf(tournamentDate));
+                return statement;
+            },
+            resultSet -> {
+                rowHandler.accept(mapUserDetails(resultSet));
+                rowCount.incrementAndGet();
+            }
+        );
+
+        return rowCount.get();
+    }
+
+    @Override
+    public long streamUserIDsInTournament(LocalDate tournamentDate, long minGroupID, long maxGroupID, Consumer<Object[]> rowHandler) {
+        AtomicLong rowCount = new AtomicLong();
+
+        jdbcTemplate.query(
+            connection -> {
+                PreparedStatement statement = connection.prepareStatement(
+                    "SELECT uit.user_id FROM user_in_tournament uit " +
+                    "JOIN tournament_group tg ON uit.group_id = tg.group_id " +
+                    "WHERE uit.group_id BETWEEN ? AND ? " +
+                    "AND tg.tournament_date = ?",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY
+                );
+                statement.setFetchSize(Integer.MIN_VALUE);
+
+                statement.setLong(1, minGroupID);
+                statement.setLong(2, maxGroupID);
+                statement.setDate(3, Date.valueOf(tournamentDate));
+                return statement;
+            },
+            resultSet -> {
+                rowHandler.accept(new Object[] { UUIDUtil.fromBytes(resultSet.getBytes(1)).toString() });
+                rowCount.incrementAndGet();
+            }
+        );
+
+        return rowCount.get();
+    }
+
+    private Object[] mapUserDetails(ResultSet resultSet) throws SQLException {
+        return new Object[] {
+            resultSet.getLong(1),
+            UUIDUtil.fromBytes(resultSet.getBytes(2)).toString(),
+            resultSet.getString(3),
+            resultSet.getString(4),
+            resultSet.getInt(5)
+        };
+    }
+}
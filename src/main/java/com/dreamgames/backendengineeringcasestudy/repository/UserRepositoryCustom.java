@@ -0,0 +1,29 @@
+package com.dreamgames.backendengineeringcasestudy.repository;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/** Bulk operations on the user table that are executed as JDBC batches, see UserRepositoryCustomImpl */
+public interface UserRepositoryCustom {
+
+    /**
+     * Increase the levels of the users and give them the coins of the levels, and add the tournament scores of the level ups, in JDBC batches,
+     * unless the batch is already persisted by an earlier flush; the batch is recorded in the same transaction.
+     * The scores of a group that is ranked already are dropped
+     * @param batchID ID of the level up batch
+     * @param levelUps Map of (userID, number of levels to add)
+     * @param coinsPerLevel Coins earned per level, the same as in the cached progress
+     * @param scoreUps {groupID, userID, score to add} of every user that scored
+     * @return false if the batch was already persisted, in which case nothing is updated
+     */
+    boolean updateUserLevels(UUID batchID, Map<UUID, Long> levelUps, int coinsPerLevel, List<Object[]> scoreUps);
+
+    /**
+     * Read the level and coins of the user, and whether a level up batch is persisted, in a single consistent read
+     * @param userID
+     * @param batchID ID of the level up batch that is being flushed, or null if there is none
+     * @return Map with the keys 'level', 'coins' and 'batch_applied', or null if the user does not exist
+     */
+    Map<String, Object> findProgressByUserId(UUID userID, UUID batchID);
+}
@@ -0,0 +1,53 @@
+package com.dreamgames.backendengineeringcasestudy.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.dreamgames.backendengineeringcasestudy.util.UUIDUtil;
+
+import jakarta.transaction.Transactional;
+import lombok.RequiredArgsConstructor;
+
+@RequiredArgsConstructor
+public class UserRepositoryCustomImpl implements UserRepositoryCustom {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    @Transactional
+    public boolean updateUserLevels(UUID batchID, Map<UUID, Long> levelUps, int coinsPerLevel, List<Object[]> scoreUps) {
+        int recorded = jdbcTemplate.update("INSERT IGNORE INTO level_up_batch (batch_id, applied_at) VALUES (?, UTC_TIMESTAMP())",
+                                            (Object) UUIDUtil.toBytes(batchID));
+        if (recorded == 0) {
+            return false;
+        }
+
+        List<Object[]> batchArgs = new ArrayList<>();
+        levelUps.forEach((userID, levels) -> batchArgs.add(new Object[] { levels, levels * coinsPerLevel, UUIDUtil.toBytes(userID) }));
+
+        jdbcTemplate.batchUpdate("UPDATE user SET level = level + ?, coins = coins + ? WHERE user_id = ?", batchArgs);
+
+        // The scores were earned while the tournaments were active, so they are added even after the tournament has ended, until it is ranked
+        if (!scoreUps.isEmpty()) {
+            List<Object[]> scoreArgs = new ArrayList<>();
+            scoreUps.forEach(scoreUp -> scoreArgs.add(new Object[] { scoreUp[2], scoreUp[0], UUIDUtil.toBytes((UUID) scoreUp[1]) }));
+            jdbcTemplate.batchUpdate("UPDATE user_in_tournament SET score = score + ? WHERE group_id = ? AND user_id = ? AND final_rank IS NULL", scoreArgs);
+        }
+
+        // A batch is retried only until its flush lock times out, so the batches recorded a day ago can never be flushed again
+        jdbcTemplate.update("DELETE FROM level_up_batch WHERE applied_at < UTC_TIMESTAMP() - INTERVAL 1 DAY");
+        return true;
+    }
+
+    @Override
+    public Map<String, Object> findProgressByUserId(UUID userID, UUID batchID) {
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+            "SELECT level, coins, EXISTS (SELECT 1 FROM level_up_batch WHERE batch_id = ?) AS batch_applied FROM user WHERE user_id = ?",
+            batchID != null ? UUIDUtil.toBytes(batchID) : null, UUIDUtil.toBytes(userID));
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+}
@@ -0,0 +1,270 @@
+package com.dreamgames.backendengineeringcasestudy.scheduler;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.stereotype.Component;
+
+import com.dreamgames.backendengineeringcasestudy.entity.User;
+import com.dreamgames.backendengineeringcasestudy.entity.UserInLeaderboard;
+import com.dreamgames.backendengineeringcasestudy.enums.Country;
+import com.dreamgames.backendengineeringcasestudy.repository.TournamentGroupRepository;
+import com.dreamgames.backendengineeringcasestudy.repository.UserRepository;
+import com.dreamgames.backendengineeringcasestudy.service.GroupAssignmentService;
+import com.dreamgames.backendengineeringcasestudy.service.RedisService;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Stores the groups recorded in the group formation outbox. The formation scripts pop the users from the country waiting queues and record
+ * the new groups as an event of the outbox stream in the same atomic call, so a group that is formed is never lost by a crash before it is stored.
+ * The relays of every node share the events through a consumer group: a relay stores a batch of events in a single MySQL transaction and
+ * the pipelined Redis writes, then acknowledges them. Storing an event is idempotent, so the events of a relay that stops before the
+ * acknowledgement are taken over by another relay once they are idle for outbox.claimTimeout milliseconds. An event that cannot be stored
+ * in outbox.maxDeliveries deliveries is moved to the dead letters, and its members are notified of the failure
+ */
+@Component
+@RequiredArgsConstructor
+public class GroupFormationRelay {
+    Logger logger = LoggerFactory.getLogger(GroupFormationRelay.class);
+
+    @Value("${outbox.batchSize}")
+    private int batchSize;
+
+    @Value("${outbox.claimTimeout}")
+    private long claimTimeout;
+
+    @Value("${outbox.maxDeliveries}")
+    private long maxDeliveries;
+
+    public static final int ENTRANCE_FEE = 1000;
+
+    // The longest time a read waits for new events, so that the stale events are checked at least this often (in milliseconds)
+    private static final long READ_BLOCK_TIME = 1000;
+
+    private final String consumerName = UUID.randomUUID().toString();
+    private final int countryCount = Country.values().length;
+
+    private final RedisService redisService;
+    private final GroupAssignmentService groupAssignmentService;
+
+    private final UserRepository userRepository;
+    private final TournamentGroupRepository tournamentGroupRepository;
+
+    private Thread relayThread;
+
+    @PostConstruct
+    public void startRelay() {
+        redisService.createGroupFormationRelays();
+
+        relayThread = Thread.ofPlatform().name("group-formation-relay").daemon().start(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    // The events that another relay failed to store are retried first
+                    List<MapRecord<String, String, String>> events = redisService.claimStaleGroupFormations(consumerName, Duration.ofMillis(claimTimeout), batchSize);
+                    if (events.isEmpty()) {
+                        events = redisService.readGroupFormations(consumerName, batchSize, Duration.ofMillis(READ_BLOCK_TIME));
+                    }
+                    if (!events.isEmpty()) {
+                        storeGroupFormations(events);
+                    }
+                } catch (RuntimeException ex) {
+                    logger.error("Group formation relay failed: %s".formatted(ex.getMessage()));
+                    try {
+                        Thread.sleep(READ_BLOCK_TIME);
+                    } catch (InterruptedException interrupted) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        });
+    }
+
+    @PreDestroy
+    public void stopRelay() {
+        relayThread.interrupt();
+    }
+
+    /**
+     * Store a batch of group formation events, or each of the events on its own if the batch fails, so that a single event cannot hold back the others
+     * @param events
+     */
+    private void storeGroupFormations(List<MapRecord<String, String, String>> events) {
+        try {
+            storeGroups(events);
+            return;
+        } catch (RuntimeException ex) {
+            if (events.size() == 1) {
+                handleFailedEvent(events.get(0), ex);
+                return;
+            }
+            logger.error("A batch of %d group formation events could not be stored, storing them one by one: %s".formatted(events.size(), ex.getMessage()));
+        }
+
+        for (MapRecord<String, String, String> event : events) {
+            try {
+                storeGroups(List.of(event));
+            } catch (RuntimeException ex) {
+                handleFailedEvent(event, ex);
+            }
+        }
+    }
+
+    /**
+     * Leave an event that could not be stored pending, so that it is retried once it is idle for outbox.claimTimeout milliseconds, 
+     * or move it to the dead letters once it has been delivered outbox.maxDeliveries times (e.g. a member that is not found, or a group ID collision)
+     * @param event
+     * @param ex The error of the last delivery
+     */
+    private void handleFailedEvent(MapRecord<String, String, String> event, RuntimeException ex) {
+        long deliveries = redisService.getGroupFormationDeliveryCount(event.getId());
+        if (deliveries < maxDeliveries) {
+            logger.error("The group formation event '%s' could not be stored at delivery %d of %d: %s"
+                .formatted(event.getId(), deliveries, maxDeliveries, ex.getMessage()));
+            return;
+        }
+        deadLetter(event, String.valueOf(ex));
+    }
+
+    /** Move an event that can never be stored to the dead letters, and fail the requests of its members instead of letting them time out */
+    private void deadLetter(MapRecord<String, String, String> event, String error) {
+        redisService.deadLetterGroupFormation(event, error);
+        groupAssignmentService.notifyGroupFormationFailed(List.of(event.getValue().get("members").split(",")));
+        logger.error("The group formation event '%s' has been moved to the dead letters: %s".formatted(event.getId(), error));
+    }
+
+    /**
+     * Store the groups of the events in the persistent storage and the cache, then acknowledge the events
+     * @param events Each event holds the ID of its first group and the userID strings of the members, group by group
+     */
+    private void storeGroups(List<MapRecord<String, String, String>> events) {
+        long startTime = System.currentTimeMillis();
+
+        Map<String, Map<Long, List<UUID>>> groupMembersByEvent = new LinkedHashMap<>();
+        Map<Long, List<UUID>> groupMembers = new LinkedHashMap<>();
+        // Every member of the events with the ID of its event
+        List<String> memberIDs = new ArrayList<>();
+        List<String> memberEventIDs = new ArrayList<>();
+        List<RecordId> eventIDs = new ArrayList<>();
+        for (MapRecord<String, String, String> event : events) {
+            long firstGroupID = Long.parseLong(event.getValue().get("firstGroupID"));
+            String[] userIDs = event.getValue().get("members").split(",");
+            Map<Long, List<UUID>> eventGroupMembers = new LinkedHashMap<>();
+            for (int g = 0; g < userIDs.length / countryCount; g++) {
+                List<UUID> members = new ArrayList<>();
+                for (int c = 0; c < countryCount; c++) {
+                    members.add(UUID.fromString(userIDs[g * countryCount + c]));
+                }
+                eventGroupMembers.put(firstGroupID + g, members);
+            }
+            groupMembersByEvent.put(event.getId().getValue(), eventGroupMembers);
+            groupMembers.putAll(eventGroupMembers);
+            for (String userID : userIDs) {
+                memberIDs.add(userID);
+                memberEventIDs.add(event.getId().getValue());
+            }
+            eventIDs.add(event.getId());
+        }
+
+        List<UUID> uuidList = groupMembers.values().stream().flatMap(List::stream).toList();
+
+        // Record the members as participants before any of their group data is cached or persisted, so that the participant set never misses them
+        redisService.addParticipants(uuidList.stream().map(UUID::toString).toList());
+
+        // Count the entrance fees as coin changes before they are collected, so that they are applied once to the cached progress of the members
+        List<Long> coinChanges = redisService.beginCoinChanges(memberIDs);
+
+        // Insert the groups and their members, and collect the entrance fees in a single transaction of JDBC batches;
+        // the events stored by an earlier delivery are skipped
+        Set<String> newEventIDs;
+        try {
+            newEventIDs = tournamentGroupRepository.insertGroups(groupMembersByEvent, ENTRANCE_FEE);
+        } catch (DataAccessException ex) {
+            if (ex.getMostSpecificCause() instanceof SQLException sqlException && "45000".equals(sqlException.getSQLState())) {
+                // If the following illegal action is detected by the database trigger,
+                // it means that there must exists severe vulnerabilities in the previous checks.
+                // The events can never be stored, so they are moved to the dead letters at once
+                logger.error("(TournamentGroupRepository) Attempted illegal group formation outside permitted hours (00:00 to 20:00 UTC) detected by database trigger!");
+                events.forEach(event -> deadLetter(event, sqlException.getMessage()));
+                return;
+            }
+            throw ex;
+        }
+        long persistDuration = System.currentTimeMillis() - startTime;
+
+        // Apply the entrance fees of the events stored now to the cached progress of their members in a single script call;
+        // the cached progress of the members of the events stored by an earlier delivery may or may not include the fees, so it is removed and reloaded
+        List<String> chargedIDs = new ArrayList<>();
+        List<Long> chargedCoinChanges = new ArrayList<>();
+        List<String> reloadedIDs = new ArrayList<>();
+        for (int i = 0; i < memberIDs.size(); i++) {
+            if (newEventIDs.contains(memberEventIDs.get(i))) {
+                chargedIDs.add(memberIDs.get(i));
+                chargedCoinChanges.add(coinChanges.get(i));
+            } else {
+                reloadedIDs.add(memberIDs.get(i));
+            }
+        }
+        redisService.adjustUserCoins(chargedIDs, chargedCoinChanges, -ENTRANCE_FEE);
+        redisService.evictUserProgress(reloadedIDs);
+
+        Map<UUID, User> users = new HashMap<>();
+        for (User user : userRepository.findByUserIDs(uuidList)) {
+            users.put(user.getUser_id(), user);
+        }
+
+        // Create a new leaderboard Hash in Redis with groupID as the key for every group
+        // For every user, create a UserInLeaderboard object and put it into the hash
+        Map<String, List<UserInLeaderboard>> leaderboards = new HashMap<>();
+        Map<String, Long> assignments = new HashMap<>();
+        groupMembers.forEach((groupID, userIDs) -> {
+            List<UserInLeaderboard> members = new ArrayList<>();
+            leaderboards.put(groupID.toString(), members);
+
+            for (UUID userID : userIDs) {
+                User user = users.get(userID);
+
+                UserInLeaderboard leaderboardUser = new UserInLeaderboard();
+                leaderboardUser.setUser_id(userID.toString());
+                leaderboardUser.setUsername(user.getUsername());
+                leaderboardUser.setCountry(user.getCountry().toString());
+                members.add(leaderboardUser);
+
+                assignments.put(userID.toString(), groupID);
+            }
+        });
+        // Every leaderboard is written in a single round trip
+        redisService.insertGroupLeaderboards(leaderboards);
+
+        // Once the group hashes are finalized, cache the key value pairs of (userID, groupID) for every user
+        // This operation must be performed after, or in the some transaction as the leaderboard creation
+        // since the (userID, groupID) pairs are also used to determine if a user is assigned to a group or not
+        redisService.setUserGroups(assignments);
+
+        // Wake up the users waiting for their groups, see enterTournament(User user) in TournamentService
+        groupAssignmentService.notifyGroupsFormed(assignments);
+
+        redisService.ackGroupFormations(eventIDs);
+
+        groupMembers.forEach((groupID, userIDs) ->
+            logger.info("A new group with group ID '%s' has been formed with the users: %s".formatted(groupID, userIDs)));
+        logger.info("%d groups of %d events have been persisted in %d ms (%.0f groups/s) and stored in %d ms"
+            .formatted(groupMembers.size(), events.size(), persistDuration, groupMembers.size() * 1000.0 / Math.max(persistDuration, 1),
+                       System.currentTimeMillis() - startTime));
+    }
+}
@@ -1,155 +1,267 @@
 package com.dreamgames.backendengineeringcasestudy.scheduler;
 
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.List;
-import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.data.redis.connection.RedisConnection;
-import org.springframework.data.redis.connection.zset.DefaultTuple;
-import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.core.ZSetOperations;
-import org.springframework.orm.jpa.JpaSystemException;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
-import com.dreamgames.backendengineeringcasestudy.entity.TournamentGroup;
-import com.dreamgames.backendengineeringcasestudy.entity.User;
-import com.dreamgames.backendengineeringcasestudy.entity.UserInLeaderboard;
-import com.dreamgames.backendengineeringcasestudy.entity.UserInTournament;
-import com.dreamgames.backendengineeringcasestudy.entity.UserInTournament.UserInTournamentID;
+import com.dreamgames.backendengineeringcasestudy.enums.Country;
 import com.dreamgames.backendengineeringcasestudy.repository.TournamentGroupRepository;
-import com.dreamgames.backendengineeringcasestudy.repository.UserInTournamentRepository;
-import com.dreamgames.backendengineeringcasestudy.repository.UserRepository;
+import com.dreamgames.backendengineeringcasestudy.service.LeaderElectionService;
 import com.dreamgames.backendengineeringcasestudy.service.RedisService;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 
 /**
- * A background task responsible of forming tournament groups  
+ * A background task responsible of forming tournament groups. The former thread is woken up as soon as a group can be formed, 
+ * through the group formation channel that is published by the queue entries on any node; the periodic tick is only a safety net.
+ * In the 'local' matchmaking mode the leader forms the groups from the in-process queues of a LocalMatchmaker instead of popping them from Redis
  */
 @Component
 @RequiredArgsConstructor
-public class GroupFormationScheduler {
-    Logger logger = LoggerFactory.getLogger(TournamentScheduler.class);
+public class GroupFormationScheduler implements MessageListener {
+    Logger logger = LoggerFactory.getLogger(GroupFormationScheduler.class);
 
-    private final RedisTemplate<String, Object> redisTemplate;
+    @Value("${scheduler.maxGroupsPerTick}")
+    private String maxGroupsPerTick;
+
+    @Value("${matchmaking.mode}")
+    private String matchmakingMode;
+
+    @Value("${scheduler.groupIDBlockSize}")
+    private int groupIDBlockSize;
+
+    private final StringRedisTemplate stringRedisTemplate;
     private final RedisService redisService;
+    private final LeaderElectionService leaderElectionService;
+
+    private final RedisScript<Long> formGroupsScript;
+
+    private final RedisMessageListenerContainer listenerContainer;
 
-    private final UserRepository userRepository;
     private final TournamentGroupRepository tournamentGroupRepository;
-    private final UserInTournamentRepository userInTournamentRepository;
+
+    // The block of group IDs reserved by this node: [nextGroupID, groupIDBlockEnd) (only accessed by the former thread)
+    private long nextGroupID;
+    private long groupIDBlockEnd;
+
+    /** The leader lease and the outbox followed by the country waiting queues, a group is formed by popping one user from each of the queues */
+    private final List<String> formGroupsKeys = Stream.concat(Stream.of(LeaderElectionService.LEADER_LEASE, RedisService.GROUP_FORMATIONS), 
+                                                              Arrays.stream(Country.values()).map(Country::toString)).toList();
+
+    // The wake-up requests of the former thread, the requests that arrive while the groups are being formed are coalesced into one
+    private final Semaphore formationRequests = new Semaphore(0);
+    private Thread formerThread;
+
+    // The in-process queues of the 'local' matchmaking mode, and the lease value they were loaded from Redis with (only accessed by the former thread)
+    private final LocalMatchmaker localMatchmaker = LocalMatchmaker.forAllCountries();
+    private String matchmakerLeaseValue;
+    // Set by the periodic tick, so that the former thread reconciles the in-process queues with the Redis queues at its next run,
+    // dropping the users that have left the queues and picking up the entries whose messages are lost
+    private volatile boolean reconcileRequested;
+
+    @PostConstruct
+    public void startGroupFormer() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(RedisService.GROUP_FORMATION_CHANNEL));
+        if (isLocalMatchmaking()) {
+            listenerContainer.addMessageListener(this, new ChannelTopic(RedisService.QUEUE_ENTRIES_CHANNEL));
+        }
+
+        formerThread = Thread.ofPlatform().name("group-former").daemon().start(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    formationRequests.acquire();
+                    formationRequests.drainPermits();
+                    // Keep forming while the queues have a backlog of more groups than a single call can form
+                    int formedGroups;
+                    do {
+                        formedGroups = formGroups();
+                    } while (formedGroups == Integer.parseInt(maxGroupsPerTick));
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException ex) {
+                    logger.error("Group formation failed: %s".formatted(ex.getMessage()));
+                }
+            }
+        });
+    }
+
+    @PreDestroy
+    public void stopGroupFormer() {
+        formerThread.interrupt();
+    }
+
+    /** Wake up the former thread */
+    public void requestGroupFormation() {
+        formationRequests.release();
+    }
+
+    /** Called when a queue entry on any node makes a group possible, or on every queue entry in the 'local' matchmaking mode */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        if (!RedisService.QUEUE_ENTRIES_CHANNEL.equals(channel)) {
+            requestGroupFormation();
+            return;
+        }
+
+        // The entries are only queued by the leader, a node that becomes the leader recovers the earlier ones from Redis
+        if (!leaderElectionService.isLeader()) {
+            return;
+        }
+        String entry = new String(message.getBody(), StandardCharsets.UTF_8);
+        int separator = entry.lastIndexOf('|');
+        if (localMatchmaker.enqueue(entry.substring(0, separator), entry.substring(separator + 1))) {
+            requestGroupFormation();
+        }
+    }
+
+    /**
+     * Periodically wake up the former thread, in case a wake-up message is lost while the subscription is down;
+     * in the 'local' matchmaking mode the in-process queues are also reconciled with the Redis queues
+     */
+    @Scheduled(fixedDelayString = "${scheduler.groupFormationFrequency}")
+    public void startGroupFormationScheduler() {
+        if (isLocalMatchmaking()) {
+            reconcileRequested = true;
+        }
+        requestGroupFormation();
+    }
 
     /**
-     * This function is called by the schedulerf if a group can be formed with the given users
-     * @param userIDs List of userID strings of the group members
+     * Form as many groups as possible from the country waiting queues
+     * @return Number of the formed groups
      */
-    @Async
-    public void updateStorage(String[] userIDs) {
-        // Initialize operation templates for value and  operations 
-
-        // Convert userID strings to UUID representations
-        List<UUID> uuidList = new ArrayList<>();
-        for (String userID : userIDs) {
-            UUID uuid = UUID.fromString(userID);
-            uuidList.add(uuid);
+    private int formGroups() {
+        // Only the leader forms groups, the wake-ups of the other nodes are ignored
+        String leaseValue = leaderElectionService.getLeaseValue();
+        if (leaseValue == null) {
+            if (matchmakerLeaseValue != null) {
+                localMatchmaker.clear();
+                matchmakerLeaseValue = null;
+            }
+            return 0;
+        }
+        if (isLocalMatchmaking()) {
+            return formGroupsLocally(leaseValue);
         }
-        List<User> users = userRepository.findByUserIDs(uuidList);
-        
-        // Insert a new group to the tournament_group table and get the ID generated for it by the DBMS
-        Long groupID;
+
+        // The script reads the queue sizes, pops min(ZCARD) users from every queue and records them in the outbox atomically in a single round trip,
+        // so no other thread or node can pop the same users in the mean time and the popped users are stored by the relays even if this node stops
+        int maxGroups = Integer.parseInt(maxGroupsPerTick);
+        Long formedGroups;
         try {
-            TournamentGroup tournamentGroup = tournamentGroupRepository.save(new TournamentGroup());
-            groupID = tournamentGroup.getGroup_id();
-        } catch (JpaSystemException ex) {
-            // If the following illegal action is detected by the database trigger,
-            // it means that there must exists severe vulnerabilities in the previous checks.  
-            logger.error("(TournamentGroupRepository) Attempted illegal group formation outside permitted hours (00:00 to 20:00 UTC) detected by database trigger!");
-            throw new IllegalStateException("Daily tournaments are held between 00.00 and 20.00 UTC");
+            // The lease value is compared with the plain string value of the lease, so the arguments are not serialized
+            formedGroups = stringRedisTemplate.execute(formGroupsScript, formGroupsKeys, 
+                                                       String.valueOf(maxGroups), leaseValue, String.valueOf(peekGroupIDs(maxGroups)));
+        } catch (RuntimeException ex) {
+            discardGroupIDs();
+            throw ex;
         }
 
-        // Create a new leaderboard Hash in Redis with groupID as the key
-        // For every user, create a UserInLeaderboard object and put it into the hash 
-        List<UserInTournament> uitList = new ArrayList<>();
-        for (int i = 0; i < 5; i++) {
-            User user = users.get(i);
-
-            UserInTournamentID uitID = new UserInTournamentID(groupID, user.getUser_id());
-            UserInTournament uit = new UserInTournament();
-            uit.setId(uitID);
-            uitList.add(uit);            
- 
-            UserInLeaderboard leaderboardUser = new UserInLeaderboard();
-            leaderboardUser.setUser_id(user.getUser_id().toString());
-            leaderboardUser.setUsername(user.getUsername());
-            leaderboardUser.setCountry(user.getCountry().toString());
-            redisService.insertUserInGroupLeaderboard(groupID.toString(), user.getUser_id().toString(), leaderboardUser);
+        if (formedGroups == null || formedGroups == 0) {
+            return 0;
         }
 
-        // Once the group hash is finalized, cache the key value pairs of (userID, groupID) for every user
-        // This operation must be performed after, or in the some transaction as the leaderboard creation
-        // since the (userID, groupID) pairs are also used to determine if a user is assigned to a group or not
-        // see waitForOtherPlayers(String userID, String country) in TournamentService
-        for (User user: users) {
-            redisService.setUserGroup(user.getUser_id().toString(), groupID);
+        nextGroupID += formedGroups;
+        return formedGroups.intValue();
+    }
+
+    /**
+     * Form as many groups as possible from the in-process queues, the members of the groups are claimed from the Redis queues 
+     * and recorded in the outbox in a single round trip
+     * @param leaseValue The lease value of the leader
+     * @return Number of the groups polled from the in-process queues
+     */
+    private int formGroupsLocally(String leaseValue) {
+        // The entries are delivered only to the current leader, so the queues are recovered from Redis whenever this node gains the leadership,
+        // and at every tick in case an entry message has been lost or a user has left a queue
+        if (!leaseValue.equals(matchmakerLeaseValue) || reconcileRequested) {
+            reconcileRequested = false;
+            localMatchmaker.reload(redisService.getCountryQueues());
+            matchmakerLeaseValue = leaseValue;
         }
 
+        List<String[]> groups = localMatchmaker.pollGroups(Integer.parseInt(maxGroupsPerTick));
+        if (groups.isEmpty()) {
+            return 0;
+        }
+
+        List<Long> claims;
         try {
-            // Once the cache is set, bulk insert/update the data to the persistant storage 
-            userInTournamentRepository.saveAll(uitList);
-            userRepository.collectEntranceFeeByUserIds(uuidList);
-        } catch (JpaSystemException ex) {
-            // If the following illegal action is detected by the database trigger,
-            // it means that there must exists severe vulnerabilities in the previous checks.  
-            logger.error("(UserInTournamentRepository) Attempted illegal group formation outside permitted hours (00:00 to 20:00 UTC) detected by database trigger!");
-            throw new IllegalStateException("Daily tournaments are held between 00.00 and 20.00 UTC");
+            claims = redisService.claimGroupMembers(leaseValue, peekGroupIDs(groups.size()), groups);
+        } catch (RuntimeException ex) {
+            // The polled users are still in the Redis queues, they are recovered with the rest at the next run
+            matchmakerLeaseValue = null;
+            discardGroupIDs();
+            throw ex;
+        }
+        if (claims == null) {
+            // Another node has taken over the leadership, it recovers the queues from Redis
+            localMatchmaker.clear();
+            matchmakerLeaseValue = null;
+            return 0;
         }
 
-        logger.info("A new group with group ID '%s' has been formed with the users: %s".formatted(groupID, uitList));
+        // The members of a group that could not be claimed are put back to the heads of their queues, except the ones that have left their queues;
+        // the groups are put back from the last one, so that the users keep their order
+        for (int g = groups.size() - 1; g >= 0; g--) {
+            String[] userIDs = groups.get(g);
+            long missingMembers = claims.get(g);
+            if (missingMembers == 0) {
+                nextGroupID++;
+                continue;
+            }
+            for (int c = 0; c < userIDs.length; c++) {
+                if ((missingMembers >> c & 1) == 1) {
+                    userIDs[c] = null;
+                }
+            }
+            localMatchmaker.requeue(userIDs);
+        }
+
+        return groups.size();
     }
 
     /**
-     * Periodically check the country waiting queues to see if a group can be formed 
+     * Get the next group IDs from the block reserved by this node without handing them out, a new block is reserved from the persistent storage 
+     * if fewer IDs are left; the IDs are handed out by advancing nextGroupID once the script reports how many groups it has formed
+     * @param count
+     * @return The first of count consecutive group IDs
      */
-    @Scheduled(fixedDelayString = "${scheduler.groupFormationFrequency}")
-    public void startGroupFormationScheduler() {
-        ZSetOperations<String, Object> zSetOps = redisTemplate.opsForZSet();
-          
-        // Since a modifying operation is going to be performed based on the output of a read operation,
-        // a Redis transaction must be used to prevent Read after Write (RAW) hazard  
-        Object executionResult = redisTemplate.execute((RedisConnection connection) -> {
-            // Begin transaction
-            connection.multi();
-
-            if (zSetOps.zCard("Turkey") > 0 && zSetOps.zCard("Germany") > 0 && zSetOps.zCard("France") > 0 
-                    && zSetOps.zCard("the United States") > 0 && zSetOps.zCard("the United Kingdom") > 0) {
-                
-                // Queue pop operations if every country waiting queue has at least one user waiting
-                connection.zSetCommands().zPopMin("Turkey".getBytes());
-                connection.zSetCommands().zPopMin("Germany".getBytes());
-                connection.zSetCommands().zPopMin("France".getBytes());
-                connection.zSetCommands().zPopMin("the United States".getBytes());
-                connection.zSetCommands().zPopMin("the United Kingdom".getBytes());
-            }
+    private long peekGroupIDs(int count) {
+        if (groupIDBlockEnd - nextGroupID < count) {
+            int blockSize = Math.max(groupIDBlockSize, count);
+            nextGroupID = tournamentGroupRepository.allocateGroupIDs(blockSize);
+            groupIDBlockEnd = nextGroupID + blockSize;
+        }
+        return nextGroupID;
+    }
 
-            // Execute all pop operations at once if the resources were not already poped by another thread in the mean time 
-            return connection.exec();
-        });
-    
-        if (executionResult != null) {
-            // Every country's waiting queue has at least one user in the line, a group can be formed
-            @SuppressWarnings("unchecked")
-            ArrayList<DefaultTuple> usersArray = (ArrayList<DefaultTuple>) executionResult;
-
-            String[] userIDs = new String[5];
-            for (int i = 0; i < 5; i++){
-                // Serialize the user ID value into a string
-                userIDs[i] = new String(usersArray.get(i).getValue()).substring(1, 37);
-            }
+    /** 
+     * Skip the rest of the reserved block, since a formation script that fails without a reply may have given the peeked IDs to the groups it recorded;
+     * an ID must never be given twice, as the relays fail the events whose group IDs are already stored by another event
+     */
+    private void discardGroupIDs() {
+        nextGroupID = groupIDBlockEnd;
+    }
 
-            updateStorage(userIDs);
-        }
+    private boolean isLocalMatchmaking() {
+        return "local".equals(matchmakingMode);
     }
-}
\ No newline at end of file
+}
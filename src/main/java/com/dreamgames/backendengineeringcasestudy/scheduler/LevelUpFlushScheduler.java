@@ -0,0 +1,132 @@
+package com.dreamgames.backendengineeringcasestudy.scheduler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.dreamgames.backendengineeringcasestudy.dto.LevelUpBatchDTO;
+import com.dreamgames.backendengineeringcasestudy.repository.UserRepository;
+import com.dreamgames.backendengineeringcasestudy.service.RedisService;
+import com.dreamgames.backendengineeringcasestudy.service.UserService;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Persists the level ups that are applied to the cache by UserService. Repeated level ups of a user are coalesced into a single
+ * (+N levels, +25N coins) update and the updates of every user are written in one JDBC batch, together with the tournament scores of the level ups.
+ * The pending level ups are kept in Redis until they are persisted, so they survive the crash of the node.
+ * Every batch is persisted together with its ID, so a batch that is flushed again after a failed acknowledgement is not applied twice
+ */
+@Component
+@RequiredArgsConstructor
+public class LevelUpFlushScheduler {
+    Logger logger = LoggerFactory.getLogger(LevelUpFlushScheduler.class);
+
+    /** Time after which another node can take over the level ups of a flush that is not acknowledged (in milliseconds) */
+    private static final long FLUSH_LOCK_TIMEOUT = 30000;
+
+    /** Time between the retries of a flush that is waited for by flushScoreUps (in milliseconds) */
+    private static final long SCORE_FLUSH_RETRY_INTERVAL = 200;
+
+    private final String nodeID = UUID.randomUUID().toString();
+
+    // Set while a requested flush is queued or running, so that the requests of the concurrent level ups are coalesced into it
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private final RedisService redisService;
+    private final UserRepository userRepository;
+
+    private final Executor asyncTaskExecutor;
+
+    /** Flush the pending level ups earlier than the next scheduled flush, called when too many users have pending level ups */
+    public void requestFlush() {
+        if (!flushRequested.compareAndSet(false, true)) {
+            return;
+        }
+        asyncTaskExecutor.execute(() -> {
+            try {
+                flushLevelUps();
+            } finally {
+                flushRequested.set(false);
+            }
+        });
+    }
+
+    /** Periodically persist the pending level ups */
+    @Scheduled(fixedDelayString = "${writeBehind.flushFrequency}")
+    public void startLevelUpFlushScheduler() {
+        flushLevelUps();
+    }
+
+    /**
+     * Persist every score that was earned before now, e.g. before a tournament is ranked.
+     * The flushes are repeated until no score up is left, waiting for the flush of another node to complete or time out
+     * @param timeout Time to wait for the score ups to be persisted (in milliseconds)
+     * @return false if there are still score ups that are not persisted after the timeout
+     */
+    public boolean flushScoreUps(long timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (redisService.hasPendingScoreUps()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            if (!flushLevelUps()) {
+                try {
+                    Thread.sleep(SCORE_FLUSH_RETRY_INTERVAL);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Persist the pending level ups
+     * @return false if the level ups could not be persisted
+     */
+    public boolean flushLevelUps() {
+        LevelUpBatchDTO batch = redisService.drainPendingLevelUps(nodeID, UUID.randomUUID().toString(), FLUSH_LOCK_TIMEOUT);
+        if (batch == null || (batch.getLevelUps().isEmpty() && batch.getScoreUps().isEmpty())) {
+            // Either there is nothing to flush or another node is flushing at the moment 
+            return batch != null;
+        }
+        Map<String, Long> levelUps = batch.getLevelUps();
+
+        Map<UUID, Long> levelUpsByUser = new HashMap<>();
+        levelUps.forEach((userID, levels) -> levelUpsByUser.put(UUID.fromString(userID), levels));
+
+        List<Object[]> scoreUps = new ArrayList<>();
+        batch.getScoreUps().forEach((groupUser, score) -> {
+            int separator = groupUser.indexOf(':');
+            scoreUps.add(new Object[] { Long.valueOf(groupUser.substring(0, separator)), UUID.fromString(groupUser.substring(separator + 1)), score });
+        });
+
+        try {
+            if (!userRepository.updateUserLevels(UUID.fromString(batch.getBatchID()), levelUpsByUser, UserService.COINS_PER_LEVEL, scoreUps)) {
+                // The batch was persisted by an earlier flush that could not acknowledge it
+                logger.info("The level up batch '%s' is already persisted, acknowledging it".formatted(batch.getBatchID()));
+            }
+        } catch (DataAccessException ex) {
+            // The level ups stay in Redis and are taken again by the next flush
+            logger.error("The level ups of %d users could not be persisted: %s".formatted(levelUps.size(), ex.getMessage()));
+            return false;
+        }
+
+        if (!redisService.ackPendingLevelUps(nodeID)) {
+            logger.error("The level up flush lock has timed out before the level ups of %d users were acknowledged".formatted(levelUps.size()));
+        }
+        return true;
+    }
+}
@@ -0,0 +1,131 @@
+package com.dreamgames.backendengineeringcasestudy.scheduler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.dreamgames.backendengineeringcasestudy.enums.Country;
+
+/**
+ * In-process country waiting queues of the group formation leader, used in the 'local' matchmaking mode.
+ * The queue entries of every node are delivered to the leader over pub/sub and appended to lock-free FIFO queues in the order of arrival;
+ * the queues are mirrored by the country queues in Redis, which are the source of truth that the leader reloads its queues from after a fail-over.
+ * Any thread may enqueue, but only the former thread polls the queues, so the number of non-empty queues can be tracked without a lock:
+ * a queue's size is incremented only after the user is appended, so the former thread never finds a queue empty that is counted as non-empty
+ */
+public class LocalMatchmaker {
+
+    private final List<String> countries;
+
+    private final Map<String, ConcurrentLinkedDeque<String>> queues = new HashMap<>();
+    private final Map<String, AtomicInteger> queueSizes = new HashMap<>();
+    private final AtomicInteger nonEmptyQueues = new AtomicInteger();
+
+    // The users in the queues, so that a user delivered both by the reload and by pub/sub is queued once
+    private final Set<String> queuedUsers = ConcurrentHashMap.newKeySet();
+
+    public LocalMatchmaker(List<String> countries) {
+        this.countries = countries;
+        for (String country : countries) {
+            queues.put(country, new ConcurrentLinkedDeque<>());
+            queueSizes.put(country, new AtomicInteger());
+        }
+    }
+
+    /** The queues of every country in the order of Country.values() */
+    public static LocalMatchmaker forAllCountries() {
+        List<String> countries = new ArrayList<>();
+        for (Country country : Country.values()) {
+            countries.add(country.toString());
+        }
+        return new LocalMatchmaker(countries);
+    }
+
+    /**
+     * Append the user to the country's queue
+     * @param country
+     * @param userID
+     * @return true if every queue has a user after the entry
+     */
+    public boolean enqueue(String country, String userID) {
+        ConcurrentLinkedDeque<String> queue = queues.get(country);
+        if (queue == null || !queuedUsers.add(userID)) {
+            return isReady();
+        }
+
+        queue.offerLast(userID);
+        if (queueSizes.get(country).incrementAndGet() == 1) {
+            nonEmptyQueues.incrementAndGet();
+        }
+        return isReady();
+    }
+
+    /** @return true if a group can be formed, in O(1) */
+    public boolean isReady() {
+        return nonEmptyQueues.get() == countries.size();
+    }
+
+    /**
+     * Poll as many groups as possible, only called by the former thread
+     * @param maxGroups
+     * @return List of groups, each group is an array of the userID strings of the group members in the order of the countries
+     */
+    public List<String[]> pollGroups(int maxGroups) {
+        List<String[]> groups = new ArrayList<>();
+        while (groups.size() < maxGroups && isReady()) {
+            String[] group = new String[countries.size()];
+            for (int c = 0; c < countries.size(); c++) {
+                group[c] = poll(countries.get(c));
+            }
+            groups.add(group);
+        }
+        return groups;
+    }
+
+    /**
+     * Put the users of a group that could not be formed back to the heads of their queues, only called by the former thread
+     * @param group Users in the order of the countries, null for the users that are dropped
+     */
+    public void requeue(String[] group) {
+        for (int c = 0; c < countries.size(); c++) {
+            if (group[c] != null && queuedUsers.add(group[c])) {
+                queues.get(countries.get(c)).offerFirst(group[c]);
+                if (queueSizes.get(countries.get(c)).incrementAndGet() == 1) {
+                    nonEmptyQueues.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Replace the queues with the contents of the Redis country queues, only called by the former thread
+     * @param countryQueues Map of (country, user IDs in the order of entry)
+     */
+    public void reload(Map<String, List<String>> countryQueues) {
+        clear();
+        countryQueues.forEach((country, userIDs) -> userIDs.forEach(userID -> enqueue(country, userID)));
+    }
+
+    /** Empty the queues, only called by the former thread */
+    public void clear() {
+        for (String country : countries) {
+            while (poll(country) != null) { }
+        }
+    }
+
+    private String poll(String country) {
+        String userID = queues.get(country).pollFirst();
+        if (userID != null) {
+            queuedUsers.remove(userID);
+            if (queueSizes.get(country).decrementAndGet() == 0) {
+                nonEmptyQueues.decrementAndGet();
+            }
+        }
+        return userID;
+    }
+}
@@ -0,0 +1,180 @@
+package com.dreamgames.backendengineeringcasestudy.scheduler;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.dreamgames.backendengineeringcasestudy.repository.UserInTournamentRepository;
+import com.dreamgames.backendengineeringcasestudy.service.RedisService;
+import com.dreamgames.backendengineeringcasestudy.util.DateUtil;
+import com.dreamgames.backendengineeringcasestudy.util.ValueMapper;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Ranks the users of an ended tournament and distributes the rewards of the first and second places.
+ * The range of the group IDs of the tournament is split into chunks that are ranked and updated on parallel workers, each chunk in its own transaction.
+ * The ranked users are skipped by the later runs, so a distribution that is interrupted is resumed from the chunks that are not ranked yet
+ */
+@Component
+@RequiredArgsConstructor
+public class RewardDistributionScheduler {
+    Logger logger = LoggerFactory.getLogger(RewardDistributionScheduler.class);
+
+    @Value("${rewards.workers}")
+    private int rewardWorkers;
+
+    @Value("${rewards.chunkSize}")
+    private long rewardChunkSize;
+
+    /** Rewards of the places of the scores in a group, the tied users share the place */
+    private static final Map<Integer, Integer> REWARDS_BY_PLACE = Map.of(1, 10000, 2, 5000);
+
+    /** Time to wait for the scores earned before the end of the tournament to be persisted, longer than the level up flush lock timeout (in milliseconds) */
+    private static final long SCORE_FLUSH_TIMEOUT = 60000;
+
+    private final AtomicBoolean distributing = new AtomicBoolean(false);
+
+    /** Chunks of the running distribution that are not ranked yet, exposed as the rewards.distribution.pending.chunks gauge */
+    private final AtomicLong pendingChunks = new AtomicLong();
+
+    private final RedisService redisService;
+    private final LevelUpFlushScheduler levelUpFlushScheduler;
+    private final UserInTournamentRepository userInTournamentRepository;
+
+    // Meters of the distributions, tagged with the tournament date: the chunks, ranked and rewarded users so far and the duration of every distribution
+    private final MeterRegistry meterRegistry;
+
+    @PostConstruct
+    public void registerMeters() {
+        meterRegistry.gauge("rewards.distribution.pending.chunks", pendingChunks);
+    }
+
+    /**
+     * Resume the distribution of the last ended tournament's rewards if it was not completed,
+     * e.g. because the node that was distributing them stopped. Also runs at start-up
+     */
+    @Scheduled(fixedDelayString = "${rewards.resumeFrequency}")
+    public void resumeRewardDistribution() {
+        // The tournament of the day ends at 20.00, before then the last ended one is the previous day's
+        LocalDateTime currentTimeUtc = DateUtil.getCurrentTimeUTC();
+        LocalDate tournamentDate = DateUtil.isTournamentActive(currentTimeUtc) 
+            ? currentTimeUtc.toLocalDate().minusDays(1) 
+            : currentTimeUtc.toLocalDate();
+        if (!redisService.isRewardsDistributed(tournamentDate)) {
+            distributeRewards(tournamentDate);
+        }
+    }
+
+    /**
+     * Persist the pending scores, then rank the users of the tournament and distribute its rewards, returns once every chunk is processed
+     * @param tournamentDate
+     * @return false if the distribution is not completed, the remaining chunks are distributed by the next resumption
+     */
+    public boolean distributeRewards(LocalDate tournamentDate) {
+        if (!distributing.compareAndSet(false, true)) {
+            logger.info("The rewards of the tournament on %s are being distributed already".formatted(tournamentDate));
+            return false;
+        }
+
+        try {
+            // The scores of the level ups that happened before the end of the tournament may not be persisted yet
+            if (!levelUpFlushScheduler.flushScoreUps(SCORE_FLUSH_TIMEOUT)) {
+                logger.error("The scores of the tournament on %s could not be persisted, it will be ranked by the next resumption".formatted(tournamentDate));
+                return false;
+            }
+
+            long[] groupIDRange = userInTournamentRepository.findGroupIDRangeInTournament(tournamentDate);
+            if (groupIDRange != null && !distributeRewardsInRange(tournamentDate, groupIDRange)) {
+                return false;
+            }
+
+            redisService.markRewardsDistributed(tournamentDate);
+            return true;
+        } finally {
+            distributing.set(false);
+        }
+    }
+
+    private boolean distributeRewardsInRange(LocalDate tournamentDate, long[] groupIDRange) {
+        long startTime = System.currentTimeMillis();
+        long chunkCount = (groupIDRange[1] - groupIDRange[0]) / rewardChunkSize + 1;
+
+        AtomicLong distributedChunks = new AtomicLong();
+        AtomicLong rankedUsers = new AtomicLong();
+        AtomicLong rewardedUsers = new AtomicLong();
+        pendingChunks.set(chunkCount);
+
+        ExecutorService rewardExecutor = Executors.newFixedThreadPool(rewardWorkers);
+
+        List<CompletableFuture<Void>> workers = new ArrayList<>();
+        for (long chunkStart = groupIDRange[0]; chunkStart <= groupIDRange[1]; chunkStart += rewardChunkSize) {
+            long minGroupID = chunkStart;
+            long maxGroupID = Math.min(chunkStart + rewardChunkSize - 1, groupIDRange[1]);
+
+            workers.add(CompletableFuture.runAsync(() -> {
+                List<Object[]> distributedRewards = userInTournamentRepository.distributeRewardsInTournament(tournamentDate, minGroupID, maxGroupID, REWARDS_BY_PLACE);
+                List<UUID> rewardedUserIDs = distributedRewards.stream()
+                    .filter(rewardObj -> (Integer) rewardObj[1] > 0)
+                    .map(rewardObj -> (UUID) rewardObj[0])
+                    .toList();
+
+                // Mirror the new rewards in the unclaimed reward index with the totals read back from the persistent storage
+                if (!rewardedUserIDs.isEmpty()) {
+                    redisService.setUnclaimedRewards(ValueMapper.unclaimedRewardsToMap(userInTournamentRepository.findUnclaimedRewardsByUserIds(rewardedUserIDs)));
+                }
+
+                long ranked = rankedUsers.addAndGet(distributedRewards.size());
+                long rewarded = rewardedUsers.addAndGet(rewardedUserIDs.size());
+                long distributed = distributedChunks.incrementAndGet();
+                pendingChunks.decrementAndGet();
+                meterRegistry.counter("rewards.distribution.chunks", "tournament", tournamentDate.toString()).increment();
+                meterRegistry.counter("rewards.distribution.ranked.users", "tournament", tournamentDate.toString()).increment(distributedRewards.size());
+                meterRegistry.counter("rewards.distribution.rewarded.users", "tournament", tournamentDate.toString()).increment(rewardedUserIDs.size());
+                // Log the progress at every tenth of the chunks
+                if (distributed * 10 / chunkCount != (distributed - 1) * 10 / chunkCount) {
+                    logger.info("Reward distribution of the tournament on %s: %d/%d chunks, %d users ranked, %d users rewarded in %d ms"
+                        .formatted(tournamentDate, distributed, chunkCount, ranked, rewarded, System.currentTimeMillis() - startTime));
+                }
+            }, rewardExecutor));
+        }
+
+        try {
+            CompletableFuture.allOf(workers.toArray(CompletableFuture[]::new)).join();
+            recordDuration(tournamentDate, "success", startTime);
+            logger.info("The rewards of the tournament on %s have been distributed: %d users ranked, %d users rewarded in %d ms"
+                .formatted(tournamentDate, rankedUsers.get(), rewardedUsers.get(), System.currentTimeMillis() - startTime));
+            return true;
+        } catch (RuntimeException ex) {
+            recordDuration(tournamentDate, "failure", startTime);
+            logger.error("The reward distribution of the tournament on %s failed after %d/%d chunks, the rest will be distributed by the next resumption: %s"
+                .formatted(tournamentDate, distributedChunks.get(), chunkCount, ex.getMessage()));
+            return false;
+        } finally {
+            pendingChunks.set(0);
+            rewardExecutor.shutdown();
+        }
+    }
+
+    private void recordDuration(LocalDate tournamentDate, String outcome, long startTime) {
+        meterRegistry.timer("rewards.distribution.duration", "tournament", tournamentDate.toString(), "outcome", outcome)
+                     .record(System.currentTimeMillis() - startTime, TimeUnit.MILLISECONDS);
+    }
+}
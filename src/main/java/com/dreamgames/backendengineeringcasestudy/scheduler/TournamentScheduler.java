@@ -1,21 +1,36 @@
 package com.dreamgames.backendengineeringcasestudy.scheduler;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.ZSetOperations.TypedTuple;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
-import com.dreamgames.backendengineeringcasestudy.entity.UserInLeaderboard;
 import com.dreamgames.backendengineeringcasestudy.repository.UserInTournamentRepository;
 import com.dreamgames.backendengineeringcasestudy.service.RedisService;
 import com.dreamgames.backendengineeringcasestudy.util.DateUtil;
+import com.dreamgames.backendengineeringcasestudy.util.ValueMapper;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 
 /**
@@ -26,27 +41,52 @@ import lombok.RequiredArgsConstructor;
 public class TournamentScheduler {
     Logger logger = LoggerFactory.getLogger(TournamentScheduler.class);
 
+    @Value("${warmUp.mode}")
+    private String warmUpMode;
+
+    @Value("${warmUp.activityWindow}")
+    private long activityWindow;
+
+    @Value("${warmUp.workers}")
+    private int warmUpWorkers;
+
+    @Value("${warmUp.batchSize}")
+    private int warmUpBatchSize;
+
+    // Number of cached users between two progress logs of the warm-up
+    private static final long WARM_UP_PROGRESS_INTERVAL = 100000;
+
     private final RedisService redisService;
+    private final RewardDistributionScheduler rewardDistributionScheduler;
     private final UserInTournamentRepository userInTournamentRepository;
 
+    // Meters of the warm-ups, tagged with their names: the users cached so far (the rate is the users per second) and the duration of every warm-up
+    private final MeterRegistry meterRegistry;
 
-    /** Give the first and second place users their rewards and clear the cache for the new day's tournament at 00.00 */
-    @Scheduled(cron = "0 0 0 * * *", zone = "UTC") 
-    public void updateRewards() {
-        // Get the current DateTime in UTC
-        LocalDateTime currentTimeUtc = DateUtil.getCurrentTimeUTC();
-
-        List<UUID> rankOneUserIDs = userInTournamentRepository.findRankOneUserIDs(currentTimeUtc);
-        userInTournamentRepository.updateRewards(rankOneUserIDs, 10000);
 
-        List<UUID> rankTwoUserIDs = userInTournamentRepository.findRankTwoUserIDs(currentTimeUtc);
-        userInTournamentRepository.updateRewards(rankTwoUserIDs, 5000);
+    /** Close the day's tournament at 20.00 and give the first and second place users their rewards */
+    @Scheduled(cron = "0 0 20 * * *", zone = "UTC") 
+    public void closeTournament() {
+        LocalDate tournamentDate = DateUtil.getCurrentTimeUTC().toLocalDate();
+        logger.info("The tournament on %s has ended".formatted(tournamentDate));
 
-        logger.info("First-place users of the last tournament: %s".formatted(rankOneUserIDs));
-        logger.info("Second-place users of the last tournament: %s".formatted(rankTwoUserIDs));
+        // The scores of an ended tournament cannot change, so the ranks are calculated once and stored along with the rewards,
+        // after the scores earned before the end are persisted
+        if (!rewardDistributionScheduler.distributeRewards(tournamentDate)) {
+            logger.error("The rewards of the tournament on %s are not distributed yet, they will be distributed by the next resumption".formatted(tournamentDate));
+        }
+    }
 
+    /** Start the new day's tournament at 00.00, the rewards of the last one are distributed already at its close */
+    @Scheduled(cron = "0 0 0 * * *", zone = "UTC") 
+    public void startTournament() {
         logger.info("New tournament begins");
-        redisService.flushTournamentCache();
+
+        // The keys of the new tournament are already in use since the epoch has switched, so only the old ones are removed
+        redisService.initCountryLeaderboard(Map.of());
+        // Every group of the new tournament is added to its participant set as it is formed, so the set is complete from the start
+        redisService.markParticipantsReady();
+        redisService.unlinkStaleTournamentKeys();
     }
 
     /** 
@@ -55,47 +95,193 @@ public class TournamentScheduler {
     */
     @EventListener(ApplicationReadyEvent.class)
     public void loadTournamentCache() {
-        // Clear the cache before the initialization
-        redisService.flushTournamentCache();
+        // In the 'active' mode, only the users who were active before the restart are warmed up
+        Set<TypedTuple<String>> recentActivity = warmUpMode.equals("active") 
+            ? redisService.getRecentUserActivity(TimeUnit.MINUTES.toMillis(activityWindow)) 
+            : null;
+
+        // The cache is not cleared, the keys of the active tournament may still be alive and ahead of the persistent storage;
+        // the keys of the old tournaments that were not removed before the restart are removed in the background
+        redisService.unlinkStaleTournamentKeys();
+
+        // Build the unclaimed reward index, unless it survived the restart
+        if (!redisService.isUnclaimedRewardIndexReady()) {
+            redisService.setUnclaimedRewards(ValueMapper.unclaimedRewardsToMap(userInTournamentRepository.findAllUnclaimedRewards()));
+            redisService.markUnclaimedRewardsReady();
+            logger.info("The unclaimed reward index has been initialized");
+        }
 
         // Get the current DateTime in UTC
         LocalDateTime currentTimeUtc = DateUtil.getCurrentTimeUTC();
 
-        // Select the users who are in a group in the current tournament
-        List<Object[]> userDetails = userInTournamentRepository.findAllUserDetailsInTournament(currentTimeUtc);
-        
         // Calculate the country scores for the current tournament
-        List<Object[]> countryScores = userInTournamentRepository.findCountryTotalScoresInTournament(currentTimeUtc);
+        List<Object[]> countryScores = userInTournamentRepository.findCountryTotalScoresInTournament(currentTimeUtc.toLocalDate());
         
-        // Initialize the cache for the Country Leaderboard
-        if (countryScores.isEmpty()) {
-            redisService.initCountryLeaderboard();
-            logger.info("The 'Country Leaderboard' cache has been initialized with zeros");
+        // Initialize the cache for the Country Leaderboard, the countries that are still cached are kept
+        Map<String, Double> countryScoreMap = new HashMap<>();
+        for (Object[] countryObj: countryScores) {
+            // countryObj[0] is the Country 
+            countryScoreMap.put(countryObj[0].toString(), Double.valueOf(countryObj[1].toString()));
+        }
+        redisService.initCountryLeaderboard(countryScoreMap);
+        logger.info("The 'Country Leaderboard' cache has been initialized");
+
+        // No group is loaded once the tournament has ended at 20.00
+        if (!DateUtil.isTournamentActive(currentTimeUtc)) {
+            return;
+        }
+
+        // The group leaderboards are loaded in the background, so that the app can take traffic in the mean time; 
+        // the groups that are accessed before they are warmed up are loaded on demand
+        LocalDate tournamentDate = currentTimeUtc.toLocalDate();
+        if (recentActivity != null) {
+            warmUpActiveGroupLeaderboards(tournamentDate, recentActivity);
+            // The participant set is built separately, since only a part of the participants are warmed up
+            if (!redisService.isParticipantSetReady()) {
+                loadParticipants(tournamentDate);
+            }
+        } else {
+            warmUpGroupLeaderboards(tournamentDate);
+        }
+    }
+
+    /** Forget the users who were not active in the activity window, so that the activity set tracks only the active population */
+    @Scheduled(fixedDelayString = "${warmUp.activityTrimFrequency}")
+    public void trimUserActivity() {
+        if (warmUpMode.equals("active")) {
+            redisService.trimUserActivity(TimeUnit.MINUTES.toMillis(activityWindow));
+        }
+    }
+
+    /**
+     * Split the range of the IDs of the groups formed in the tournament between the warm-up workers
+     * @param tournamentDate
+     * @return {minimum group ID, maximum group ID} of every worker, empty if no group is formed yet
+     */
+    private List<long[]> splitGroupIDRange(LocalDate tournamentDate) {
+        List<long[]> ranges = new ArrayList<>();
+
+        long[] groupIDRange = userInTournamentRepository.findGroupIDRangeInTournament(tournamentDate);
+        if (groupIDRange == null) {
+            return ranges;
+        }
+
+        long rangeSize = (groupIDRange[1] - groupIDRange[0]) / warmUpWorkers + 1;
+        for (long rangeStart = groupIDRange[0]; rangeStart <= groupIDRange[1]; rangeStart += rangeSize) {
+            ranges.add(new long[] { rangeStart, Math.min(rangeStart + rangeSize - 1, groupIDRange[1]) });
+        }
+        return ranges;
+    }
+
+    /**
+     * Stream every participant of the tournament from the persistent storage and cache them in pipelined batches.
+     * The range of the group IDs is split between parallel workers, each streaming its own range.
+     * Since every participant is streamed, the participant set is complete once the warm-up succeeds
+     * @param tournamentDate
+     */
+    private void warmUpGroupLeaderboards(LocalDate tournamentDate) {
+        List<Consumer<Consumer<Object[]>>> sources = new ArrayList<>();
+        for (long[] range : splitGroupIDRange(tournamentDate)) {
+            sources.add(rowHandler -> userInTournamentRepository.streamUserDetailsInTournament(tournamentDate, range[0], range[1], rowHandler));
+        }
+
+        runWarmUpWorkers("group leaderboard", sources, redisService::insertUsersInGroupLeaderboards, redisService::markParticipantsReady);
+    }
+
+    /**
+     * Cache only the groups of the users who were active in the activity window before the restart, 
+     * so that the restart time and the memory track the active population instead of every participant of the day
+     * @param tournamentDate
+     * @param recentActivity (userID, time of the last activity) pairs read at start-up
+     */
+    private void warmUpActiveGroupLeaderboards(LocalDate tournamentDate, Set<TypedTuple<String>> recentActivity) {
+        List<UUID> activeUserIDs = recentActivity.stream().map(activity -> UUID.fromString(activity.getValue())).toList();
+        logger.info("Warming up the groups of %d users active in the last %d minutes".formatted(activeUserIDs.size(), activityWindow));
+
+        List<Consumer<Consumer<Object[]>>> sources = new ArrayList<>();
+        for (int i = 0; i < activeUserIDs.size(); i += warmUpBatchSize) {
+            List<UUID> userIDs = activeUserIDs.subList(i, Math.min(i + warmUpBatchSize, activeUserIDs.size()));
+            sources.add(rowHandler -> userInTournamentRepository.streamGroupsOfUsersInTournament(tournamentDate, userIDs, rowHandler));
         }
-        else {
-            for (Object[] countryObj: countryScores) {
-                // countryObj[0] is the Country 
-                redisService.updateCountryLeaderboard(countryObj[0].toString(), Double.valueOf(countryObj[1].toString()));
-            }    
-            logger.info("The 'Country Leaderboard' cache has been initialized");
+
+        runWarmUpWorkers("group leaderboard", sources, redisService::insertUsersInGroupLeaderboards, () -> {});
+    }
+
+    /**
+     * Build the participant set of the tournament from the persistent storage, only the user IDs are streamed
+     * @param tournamentDate
+     */
+    private void loadParticipants(LocalDate tournamentDate) {
+        List<Consumer<Consumer<Object[]>>> sources = new ArrayList<>();
+        for (long[] range : splitGroupIDRange(tournamentDate)) {
+            sources.add(rowHandler -> userInTournamentRepository.streamUserIDsInTournament(tournamentDate, range[0], range[1], rowHandler));
         }
 
-        // TBD: Instead of loading every user at start and waiting for inactive data to be deleted after the TTL,
-        // a mechanism to load only the data of users who were active before the system failure can be implemented 
-        for (Object[] userObj: userDetails) {
-            // First, cache the key value pair of (userID, groupID) for every user 
-            redisService.setUserGroup(userObj[1].toString(), Long.valueOf(userObj[0].toString()));
-
-            // Then, cache the group leaderboard
-            UserInLeaderboard leaderboardUser = new UserInLeaderboard();
-            leaderboardUser.setUser_id(userObj[1].toString());
-            leaderboardUser.setUsername((String) userObj[2]);
-            leaderboardUser.setCountry(userObj[3].toString());
-            leaderboardUser.setScore((Integer) userObj[4]);
-            
-            // userObj[0].toString() is the group ID and userObj[1].toString() is the user ID
-            redisService.insertUserInGroupLeaderboard(userObj[0].toString(), userObj[1].toString(), leaderboardUser);
+        runWarmUpWorkers("participant set", sources, 
+            batch -> redisService.addParticipants(batch.stream().map(userObj -> userObj[0].toString()).toList()), 
+            redisService::markParticipantsReady);
+    }
+
+    /**
+     * Run the row sources on warmUp.workers parallel workers in the background, writing the streamed rows to the cache in batches
+     * @param name Name of the warm-up for the logs
+     * @param sources Each one streams rows into the given handler
+     * @param batchWriter Writes a batch of rows to the cache
+     * @param onSuccess Called once every source is written to the cache successfully
+     */
+    private void runWarmUpWorkers(String name, List<Consumer<Consumer<Object[]>>> sources, Consumer<List<Object[]>> batchWriter, Runnable onSuccess) {
+        long startTime = System.currentTimeMillis();
+        AtomicLong cachedUsers = new AtomicLong();
+        Counter cachedUsersCounter = meterRegistry.counter("cache.warmup.users", "warmup", name);
+
+        ExecutorService warmUpExecutor = Executors.newFixedThreadPool(warmUpWorkers);
+
+        List<CompletableFuture<Void>> workers = new ArrayList<>();
+        for (Consumer<Consumer<Object[]>> source : sources) {
+            workers.add(CompletableFuture.runAsync(() -> warmUpFromSource(name, source, batchWriter, cachedUsers, cachedUsersCounter, startTime), 
+                                                   warmUpExecutor));
+        }
+
+        CompletableFuture.allOf(workers.toArray(CompletableFuture[]::new)).whenComplete((result, ex) -> {
+            warmUpExecutor.shutdown();
+            long elapsed = System.currentTimeMillis() - startTime;
+            meterRegistry.timer("cache.warmup.duration", "warmup", name, "outcome", ex != null ? "failure" : "success")
+                         .record(elapsed, TimeUnit.MILLISECONDS);
+            if (ex != null) {
+                logger.error("The %s warm-up failed after caching %d users in %d ms, the rest will be loaded on demand: %s"
+                    .formatted(name, cachedUsers.get(), elapsed, ex.getMessage()));
+            } else {
+                onSuccess.run();
+                logger.info("The %s cache has been initialized: %d users in %d ms".formatted(name, cachedUsers.get(), elapsed));
+            }
+        });
+    }
+
+    private void warmUpFromSource(String name, Consumer<Consumer<Object[]>> source, Consumer<List<Object[]>> batchWriter, 
+                                  AtomicLong cachedUsers, Counter cachedUsersCounter, long startTime) {
+        List<Object[]> batch = new ArrayList<>(warmUpBatchSize);
+
+        source.accept(userObj -> {
+            batch.add(userObj);
+            if (batch.size() == warmUpBatchSize) {
+                cacheWarmUpBatch(name, batch, batchWriter, cachedUsers, cachedUsersCounter, startTime);
+            }
+        });
+        if (!batch.isEmpty()) {
+            cacheWarmUpBatch(name, batch, batchWriter, cachedUsers, cachedUsersCounter, startTime);
+        }
+    }
+
+    private void cacheWarmUpBatch(String name, List<Object[]> batch, Consumer<List<Object[]>> batchWriter, 
+                                  AtomicLong cachedUsers, Counter cachedUsersCounter, long startTime) {
+        batchWriter.accept(batch);
+
+        cachedUsersCounter.increment(batch.size());
+        long total = cachedUsers.addAndGet(batch.size());
+        if (total / WARM_UP_PROGRESS_INTERVAL != (total - batch.size()) / WARM_UP_PROGRESS_INTERVAL) {
+            long elapsed = Math.max(System.currentTimeMillis() - startTime, 1);
+            logger.info("The %s warm-up: %d users cached in %d ms (%d users/s)".formatted(name, total, elapsed, total * 1000 / elapsed));
         }
-        logger.info("The cache for the group leaderboards have been initialized");
+        batch.clear();
     }
 }
@@ -0,0 +1,121 @@
+package com.dreamgames.backendengineeringcasestudy.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Service;
+
+import com.dreamgames.backendengineeringcasestudy.exception.DatabaseExpection;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Keeps a registry of the users that are waiting in a country queue on this node, and completes their futures as soon as they are assigned to a group,
+ * or fails them if their group can never be stored.
+ * Group assignments are published over Redis pub/sub, so that the waiters are notified no matter which node formed the group
+ */
+@Service
+@RequiredArgsConstructor
+public class GroupAssignmentService implements MessageListener {
+    Logger logger = LoggerFactory.getLogger(GroupAssignmentService.class);
+
+    private static final String GROUP_ASSIGNMENT_CHANNEL = "Group Assignments";
+    // Published instead of a group ID for the users whose group could not be stored, the group IDs start from 1
+    private static final long FAILED_GROUP_ID = 0;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+
+    private final Map<String, CompletableFuture<Long>> waiters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void subscribe() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(GROUP_ASSIGNMENT_CHANNEL));
+    }
+
+    /**
+     * Register the user as a waiter on this node
+     * @param userID
+     * @return A future that is completed with the group ID once the user is assigned to a group, or null if the user is already waiting
+     */
+    public CompletableFuture<Long> register(String userID) {
+        CompletableFuture<Long> waiter = new CompletableFuture<>();
+        if (waiters.putIfAbsent(userID, waiter) != null) {
+            return null;
+        }
+        return waiter;
+    }
+
+    /** Remove the waiter of the user from the registry, if it is still the given one */
+    public void unregister(String userID, CompletableFuture<Long> waiter) {
+        waiters.remove(userID, waiter);
+    }
+
+    /**
+     * Complete the waiters of the newly formed groups on this node and notify the other nodes
+     * @param assignments Map of (userID, groupID) pairs
+     */
+    public void notifyGroupsFormed(Map<String, Long> assignments) {
+        StringJoiner payload = new StringJoiner(",");
+        assignments.forEach((userID, groupID) -> {
+            if (!completeWaiter(userID, groupID)) {
+                payload.add(userID + ":" + groupID);
+            }
+        });
+
+        // Only the users that are not waiting on this node need to be published
+        if (payload.length() > 0) {
+            stringRedisTemplate.convertAndSend(GROUP_ASSIGNMENT_CHANNEL, payload.toString());
+        }
+    }
+
+    /**
+     * Fail the waiters of the members of a group formation that can never be stored on this node and notify the other nodes
+     * @param userIDs
+     */
+    public void notifyGroupFormationFailed(List<String> userIDs) {
+        Map<String, Long> failures = new HashMap<>();
+        userIDs.forEach(userID -> failures.put(userID, FAILED_GROUP_ID));
+        notifyGroupsFormed(failures);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String payload = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (payload.isEmpty()) {
+            return;
+        }
+
+        for (String assignment : payload.split(",")) {
+            String[] pair = assignment.split(":");
+            completeWaiter(pair[0], Long.valueOf(pair[1]));
+        }
+    }
+
+    /** @return true if the user was waiting on this node */
+    private boolean completeWaiter(String userID, Long groupID) {
+        CompletableFuture<Long> waiter = waiters.remove(userID);
+        if (waiter == null) {
+            return false;
+        }
+        if (groupID == FAILED_GROUP_ID) {
+            waiter.completeExceptionally(new DatabaseExpection("Your group could not be formed, please try again"));
+        } else {
+            waiter.complete(groupID);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,130 @@
+package com.dreamgames.backendengineeringcasestudy.service;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Elects a single node to form the tournament groups through a lease on a Redis key. Every acquisition of the lease issues a new fencing token,
+ * and the group formation script pops users only for the current holder of the lease with the current token; so a leader that is paused past
+ * its lease can never pop users after another node has taken over. A leader that stops is replaced within leaderElection.leaseTime plus
+ * leaderElection.renewFrequency milliseconds, or within leaderElection.renewFrequency milliseconds if it releases the lease on shutdown
+ */
+@Service
+@RequiredArgsConstructor
+public class LeaderElectionService {
+    Logger logger = LoggerFactory.getLogger(LeaderElectionService.class);
+
+    @Value("${leaderElection.leaseTime}")
+    private long leaseTime;
+
+    public static final String LEADER_LEASE = "Group Formation:Leader";
+    private static final String FENCING_TOKEN = "Group Formation:Fencing Token";
+    private static final String LAST_RENEWAL = "Group Formation:Last Renewal";
+
+    private final String nodeID = UUID.randomUUID().toString();
+
+    // "<node ID>:<fencing token>" while this node is the leader, null otherwise
+    private volatile String leaseValue;
+    // The local time until which the lease is surely held, a leader that cannot renew steps down on its own once it passes
+    private volatile long leaseDeadline;
+    private volatile long tenureStart;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    @SuppressWarnings("rawtypes")
+    private final RedisScript<List> acquireLeadershipScript;
+    private final RedisScript<Long> releaseLeaseScript;
+
+    // Meters of the leadership: whether this node leads (group.formation.leader), the tenure of every leader and the handoff latency of every acquisition
+    private final MeterRegistry meterRegistry;
+
+    @PostConstruct
+    public void registerMeters() {
+        // Read without stepping down, a scrape does not change the leadership
+        meterRegistry.gauge("group.formation.leader", this, service -> service.leaseValue != null && System.currentTimeMillis() < service.leaseDeadline ? 1 : 0);
+    }
+
+    /** Acquire the lease if no node holds it, or renew it if this node does */
+    @Scheduled(fixedDelayString = "${leaderElection.renewFrequency}")
+    public void renewLeadership() {
+        long requestTime = System.currentTimeMillis();
+
+        List<?> result;
+        try {
+            result = stringRedisTemplate.execute(acquireLeadershipScript, List.of(LEADER_LEASE, FENCING_TOKEN, LAST_RENEWAL),
+                                                nodeID, String.valueOf(leaseTime));
+        } catch (RuntimeException ex) {
+            logger.error("The group formation lease could not be renewed: %s".formatted(ex.getMessage()));
+            return;
+        }
+
+        long token = ((Number) result.get(0)).longValue();
+        if (token == 0) {
+            stepDown("the lease is held by another node");
+            return;
+        }
+
+        // The lease was requested before the reply, so it expires no earlier than the request time plus the lease time
+        leaseDeadline = requestTime + leaseTime;
+
+        long handoffLatency = ((Number) result.get(1)).longValue();
+        if (handoffLatency >= 0) {
+            meterRegistry.timer("group.formation.leader.handoff").record(handoffLatency, TimeUnit.MILLISECONDS);
+            logger.info("This node has become the group formation leader with the fencing token %d, %d ms after the last renewal of the previous leader"
+                .formatted(token, handoffLatency));
+        } else if (leaseValue == null) {
+            // The node had stepped down on its own, but the lease had not expired yet
+            logger.info("This node has resumed the group formation leadership with the fencing token %d".formatted(token));
+        }
+        if (leaseValue == null || handoffLatency >= 0) {
+            tenureStart = requestTime;
+        }
+        leaseValue = nodeID + ":" + token;
+    }
+
+    /** @return true if this node holds the lease */
+    public boolean isLeader() {
+        if (leaseValue != null && System.currentTimeMillis() >= leaseDeadline) {
+            stepDown("the lease could not be renewed in time");
+        }
+        return leaseValue != null;
+    }
+
+    /** @return "<node ID>:<fencing token>" of this node if it is the leader, null otherwise */
+    public String getLeaseValue() {
+        return isLeader() ? leaseValue : null;
+    }
+
+    /** Release the lease on shutdown, so that another node takes over at its next renewal instead of waiting for the lease to expire */
+    @PreDestroy
+    public void releaseLeadership() {
+        String value = leaseValue;
+        if (value != null) {
+            stepDown("the node is shutting down");
+            stringRedisTemplate.execute(releaseLeaseScript, List.of(LEADER_LEASE), value);
+        }
+    }
+
+    private synchronized void stepDown(String reason) {
+        if (leaseValue != null) {
+            long tenure = System.currentTimeMillis() - tenureStart;
+            meterRegistry.timer("group.formation.leader.tenure").record(tenure, TimeUnit.MILLISECONDS);
+            logger.info("This node is no longer the group formation leader, because %s; tenure: %d ms".formatted(reason, tenure));
+            leaseValue = null;
+        }
+    }
+}
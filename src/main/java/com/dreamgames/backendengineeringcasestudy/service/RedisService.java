@@ -1,30 +1,62 @@
 package com.dreamgames.backendengineeringcasestudy.service;
 
+import java.time.Duration;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.DefaultStringTuple;
+import org.springframework.data.redis.connection.RedisStringCommands.SetOption;
+import org.springframework.data.redis.connection.RedisZSetCommands.ZAddArgs;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.StringRedisConnection.StringTuple;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.Cursor;
 import org.springframework.data.redis.core.HashOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ValueOperations;
 import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.data.redis.core.ZSetOperations.TypedTuple;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
 
 import com.dreamgames.backendengineeringcasestudy.dto.LeaderboardDTO;
+import com.dreamgames.backendengineeringcasestudy.dto.LevelUpBatchDTO;
 import com.dreamgames.backendengineeringcasestudy.entity.UserInLeaderboard;
+import com.dreamgames.backendengineeringcasestudy.enums.Country;
 import com.dreamgames.backendengineeringcasestudy.repository.UserInTournamentRepository;
-import com.dreamgames.backendengineeringcasestudy.scheduler.TournamentScheduler;
 import com.dreamgames.backendengineeringcasestudy.util.DateUtil;
 import com.dreamgames.backendengineeringcasestudy.util.ValueMapper;
 
@@ -32,14 +64,14 @@ import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 
 /**
- * Interactions with Redis are performed through this service to make sure that the TTL is reset at every operation, so that active users
+ * Interactions with Redis are performed through this service to make sure that the TTL is kept alive by every operation, so that active users
  * are always being served from the memory. Plus, the data related on the user and the tournament are very closely related and it is a good idea to
  * cache them together. For further scalability, this service is a better solution than a @Cacheable annotation based one     
  */
 @Service
 @RequiredArgsConstructor
 public class RedisService {
-    Logger logger = LoggerFactory.getLogger(TournamentScheduler.class);
+    Logger logger = LoggerFactory.getLogger(RedisService.class);
     
     @Value("${ttl.userGroup}")
     private String userGroupTTL;
@@ -47,27 +79,147 @@ public class RedisService {
     @Value("${ttl.groupLeaderboard}")
     private String groupLeaderboardTTL;
 
+    @Value("${ttl.userProgress}")
+    private String userProgressTTL;
+
+    @Value("${ttl.refreshRatio}")
+    private double ttlRefreshRatio;
+
+    @Value("${ttl.groupLoadLease}")
+    private String groupLoadLeaseTTL;
+
+    @Value("${warmUp.mode}")
+    private String warmUpMode;
+
+    @Value("${matchmaking.mode}")
+    private String matchmakingMode;
+
+    private static final String TOURNAMENT_KEY_PREFIX = "tournament:";
+    private static final int STALE_KEY_BATCH_SIZE = 500;
+    // Interval between two checks of a group load lease held by another node (in milliseconds)
+    private static final long GROUP_LOAD_POLL_INTERVAL = 20;
+
+    private static final String COUNTRY_LEADERBOARD = "Country Leaderboard";
+    private static final String PARTICIPANTS = "Participants";
+    private static final String PARTICIPANTS_READY = "Participants:Ready";
+    private static final String USER_ACTIVITY = "User Activity";
+
+    private static final String UNCLAIMED_REWARDS = "Unclaimed Rewards";
+    private static final String UNCLAIMED_REWARDS_READY = "Unclaimed Rewards:Ready";
+    private static final String REWARDS_DISTRIBUTED = "Rewards Distributed:";
+
+    private static final String PENDING_LEVEL_UPS = "Level Ups";
+    private static final String FLUSHING_LEVEL_UPS = "Level Ups:Flushing";
+    private static final String LEVEL_UP_FLUSH_LOCK = "Level Ups:Flush Lock";
+    private static final String FLUSHING_LEVEL_UP_BATCH = "Level Ups:Flushing Batch";
+    private static final String PENDING_SCORE_UPS = "Score Ups";
+    private static final String FLUSHING_SCORE_UPS = "Score Ups:Flushing";
+
+    /** The pub/sub channel that wakes up the group formers when a group can be formed */
+    public static final String GROUP_FORMATION_CHANNEL = "Group Formation";
+    /** The outbox of the group formations, a stream of the groups popped from the country waiting queues that are yet to be stored, see GroupFormationRelay */
+    public static final String GROUP_FORMATIONS = "Group Formations";
+    private static final String GROUP_FORMATION_RELAYS = "Group Formation Relays";
+    /** The group formation events that could not be stored in outbox.maxDeliveries deliveries, with the error of the last delivery */
+    public static final String GROUP_FORMATION_DEAD_LETTERS = "Group Formations:Dead Letters";
+
+    /** The pub/sub channel that forwards the queue entries to the in-process matchmaker of the leader, see LocalMatchmaker */
+    public static final String QUEUE_ENTRIES_CHANNEL = "Queue Entries";
+
+    private static final List<String> COUNTRY_QUEUES = Arrays.stream(Country.values()).map(Country::toString).toList();
+
+    private final String nodeID = UUID.randomUUID().toString();
+
+    // The group loads in progress on this node, the concurrent loads of a group wait for the one in progress instead of querying again
+    private final Map<Long, CompletableFuture<Boolean>> groupLoads = new ConcurrentHashMap<>();
+
     private final RedisTemplate<String, Object> redisTemplate;
+    private final StringRedisTemplate stringRedisTemplate;
     private final UserInTournamentRepository userInTournamentRepository;
 
-    private HashOperations<String, String, Object> hashOps;
+    @SuppressWarnings("rawtypes")
+    private final RedisScript<List> levelUpScript;
+    private final RedisScript<Long> initUserProgressScript;
+    @SuppressWarnings("rawtypes")
+    private final RedisScript<List> beginCoinChangesScript;
+    private final RedisScript<Long> adjustUserCoinsScript;
+    @SuppressWarnings("rawtypes")
+    private final RedisScript<List> drainLevelUpsScript;
+    private final RedisScript<Long> ackLevelUpsScript;
+    private final RedisScript<Long> incrementTournamentScoreScript;
+    @SuppressWarnings("rawtypes")
+    private final RedisScript<List> readGroupLeaderboardScript;
+    private final RedisScript<Long> rankInGroupScript;
+    private final RedisScript<Long> isParticipantScript;
+    private final RedisScript<Long> getUnclaimedRewardScript;
+    private final RedisScript<Long> releaseLeaseScript;
+    private final RedisScript<Long> enterCountryQueueScript;
+    @SuppressWarnings("rawtypes")
+    private final RedisScript<List> claimGroupMembersScript;
+
     private ValueOperations<String, Object> valueOps;
-    private ZSetOperations<String, Object> zSetOps;
+
+    // Plain string values (leaderboards, user activity, user groups), so that they can be read and modified by the Lua scripts
+    private HashOperations<String, String, String> stringHashOps;
+    private ZSetOperations<String, String> stringZSetOps;
+    private ValueOperations<String, String> stringValueOps;
 
     @PostConstruct
     public void initializeRedisOperations() {
-        this.zSetOps = redisTemplate.opsForZSet();
-        this.hashOps = redisTemplate.opsForHash();
         this.valueOps = redisTemplate.opsForValue();
+
+        this.stringHashOps = stringRedisTemplate.opsForHash();
+        this.stringZSetOps = stringRedisTemplate.opsForZSet();
+        this.stringValueOps = stringRedisTemplate.opsForValue();
+    }
+
+    /**
+     * The scripts refresh the TTL of a key only once its remaining time falls below the refresh threshold, 
+     * so that the keys of the active users are not rewritten with an EXPIRE at every request
+     * @param ttl TTL of the key (in seconds)
+     * @return The refresh threshold of the TTL (in seconds)
+     */
+    private String refreshThreshold(String ttl) {
+        return String.valueOf((long) (Long.parseLong(ttl) * ttlRefreshRatio));
     }
     
-    /** Clear the cache */
-    public void flushTournamentCache() {
-        RedisConnectionFactory connectionFactory = redisTemplate.getConnectionFactory();
-        if (connectionFactory != null) {
-            connectionFactory.getConnection().serverCommands().flushAll();
-        } 
-        logger.info("Redis flushed");
+    /*
+     * The keys of a tournament are prefixed with its epoch, the UTC date of the tournament: tournament:<yyyy-MM-dd>:<key>
+     * A new tournament begins by switching the epoch that the keys are built with, the keys of the old epochs are unlinked in the background.
+     * The prefix is built once per operation, so that all the keys of a multi-key operation belong to the same epoch
+     */
+    private String tournamentPrefix() {
+        return TOURNAMENT_KEY_PREFIX + DateUtil.getCurrentTimeUTC().toLocalDate() + ":";
+    }
+
+    /**
+     * Remove the keys of every tournament but the active one, incrementally with SCAN and UNLINK so that Redis is never blocked
+     */
+    @Async
+    public void unlinkStaleTournamentKeys() {
+        String activePrefix = tournamentPrefix();
+        ScanOptions scanOptions = ScanOptions.scanOptions().match(TOURNAMENT_KEY_PREFIX + "*").count(STALE_KEY_BATCH_SIZE).build();
+
+        long unlinked = 0;
+        List<String> staleKeys = new ArrayList<>(STALE_KEY_BATCH_SIZE);
+        try (Cursor<String> cursor = stringRedisTemplate.scan(scanOptions)) {
+            while (cursor.hasNext()) {
+                String key = cursor.next();
+                if (key.startsWith(activePrefix)) {
+                    continue;
+                }
+
+                staleKeys.add(key);
+                if (staleKeys.size() == STALE_KEY_BATCH_SIZE) {
+                    unlinked += stringRedisTemplate.unlink(staleKeys);
+                    staleKeys.clear();
+                }
+            }
+        }
+        if (!staleKeys.isEmpty()) {
+            unlinked += stringRedisTemplate.unlink(staleKeys);
+        }
+        logger.info("Unlinked %d keys of the old tournaments".formatted(unlinked));
     }
 
     /** Get the country leaderboard from the memory.
@@ -75,7 +227,14 @@ public class RedisService {
      * @return LeaderboardDTO of the country leaderboard
      */
     public LeaderboardDTO getCountryLeaderboard() {
-        Set<TypedTuple<Object>> countryLeaderboardSet = zSetOps.reverseRangeByScoreWithScores("Country Leaderboard", 0, Integer.MAX_VALUE);
+        String countryLeaderboardKey = tournamentPrefix() + COUNTRY_LEADERBOARD;
+        Set<TypedTuple<String>> countryLeaderboardSet = stringZSetOps.reverseRangeByScoreWithScores(countryLeaderboardKey, 0, Integer.MAX_VALUE);
+
+        // The leaderboard of a new tournament is initialized on its first read
+        if (countryLeaderboardSet != null && countryLeaderboardSet.size() < Country.values().length) {
+            initCountryLeaderboard(Map.of());
+            countryLeaderboardSet = stringZSetOps.reverseRangeByScoreWithScores(countryLeaderboardKey, 0, Integer.MAX_VALUE);
+        }
 
         if (countryLeaderboardSet != null) {
             Object[] countryLeaderboard = countryLeaderboardSet.toArray();
@@ -86,17 +245,31 @@ public class RedisService {
         }    
     }
 
-    /** Initialize the country leaderboard with zeros */
-    public void initCountryLeaderboard() {
-        zSetOps.add("Country Leaderboard", "Turkey", 0);
-        zSetOps.add("Country Leaderboard", "Germany", 0);
-        zSetOps.add("Country Leaderboard", "France", 0);
-        zSetOps.add("Country Leaderboard", "the United States", 0);
-        zSetOps.add("Country Leaderboard", "the United Kingdom", 0);
+    /**
+     * Initialize the country leaderboard of the active tournament. The countries that are already in the leaderboard are not overwritten,
+     * since the cached scores are never behind the persistent storage
+     * @param countryScores Map of (country, score), the countries that are not in the map are initialized with zeros
+     */
+    public void initCountryLeaderboard(Map<String, Double> countryScores) {
+        String countryLeaderboardKey = tournamentPrefix() + COUNTRY_LEADERBOARD;
+        for (Country country : Country.values()) {
+            stringZSetOps.addIfAbsent(countryLeaderboardKey, country.toString(), countryScores.getOrDefault(country.toString(), 0.0));
+        }
+    }
+
+    /*
+     * A group leaderboard is stored in two keys that share the same TTL:
+     *  - <epoch prefix><groupID>:Members -> Hash of (userID, compact member record), the static details of the members; see ValueMapper.userInLeaderboardToRecord
+     *  - <epoch prefix><groupID>:Scores  -> Sorted set of (userID, score), so that Redis keeps the leaderboard ordered
+     * Group leaderboards in the former layout (a hash of JDK-serialized UserInLeaderboard objects keyed by the group ID) are never read;
+     * the groups are loaded into the new layout from the persistent storage on their first access, and the old hashes expire with their TTL
+     */
+    private String groupMembersKey(String prefix, String groupID) {
+        return prefix + groupID + ":Members";
     }
 
-    public Double updateCountryLeaderboard(String country, Double value) {
-        return zSetOps.incrementScore("Country Leaderboard", country, value);
+    private String groupScoresKey(String prefix, String groupID) {
+        return prefix + groupID + ":Scores";
     }
 
     /**
@@ -106,52 +279,178 @@ public class RedisService {
      * @return LeaderboardDTO object of the group's leaderboard OR null if no group is found with the ID in the active tournament
      */
     public LeaderboardDTO getGroupLeaderboard(String groupID, boolean checkPersistentStorage) {
-        Map<String, Object> hashValues = hashOps.entries(groupID);
-        if (hashValues.isEmpty()) {
+        String prefix = tournamentPrefix();
+        List<String> keys = List.of(groupMembersKey(prefix, groupID), groupScoresKey(prefix, groupID));
+
+        // Read the members in the order of their scores and refresh the TTL in a single round trip
+        @SuppressWarnings("unchecked")
+        List<Object> leaderboard = nilToNull(stringRedisTemplate.execute(readGroupLeaderboardScript, keys, groupLeaderboardTTL, refreshThreshold(groupLeaderboardTTL)));
+        if (leaderboard == null) {
             if (checkPersistentStorage) {
                 boolean loadSuccess = loadGroupToRedis(Long.valueOf(groupID));
                 if(!loadSuccess) {
                     return null;
                 }
-                hashValues = hashOps.entries(groupID);    
+                return getGroupLeaderboard(groupID, false);
             } else {
                 return  null;
             }
         }
 
-        // Set the TTL
-        redisTemplate.expire(groupID, Integer.parseInt(groupLeaderboardTTL), TimeUnit.SECONDS);
+        return ValueMapper.groupLeaderboardToDTO(leaderboard);
+    }
 
-        return ValueMapper.groupLeaderboardToDTO(hashValues.values().toArray());
+    /**
+     * Find the rank of the user in the cached group leaderboard
+     * @param groupID
+     * @param userID
+     * @return 1 + the number of users in the group with a higher score, or null if the user is not in the cached group leaderboard
+     */
+    public Integer getUserRankInGroup(String groupID, String userID) {
+        Long rank = stringRedisTemplate.execute(rankInGroupScript, List.of(groupScoresKey(tournamentPrefix(), groupID)), userID);
+        return rank == null ? null : rank.intValue();
     }
 
     /**
-     * Read the user with userID from the active tournament group with group ID. Check both the cache and persistent storage.
+     * Increment the score of the user in the group leaderboard and the score of the user's country in the country leaderboard
+     * in a single atomic operation. If the group leaderboard is not in the cache, it is loaded from the persistent storage first
      * @param groupID
      * @param userID
-     * @return UserInLeaderboard object of the user or null
-     */
-    public UserInLeaderboard getUserInGroupLeaderboard(String groupID, String userID) {
-        UserInLeaderboard uil = (UserInLeaderboard) hashOps.get(groupID, userID);
-        if (uil == null) {
-            boolean loadSuccess = loadUserToRedis(userID);
-            if(!loadSuccess) {
-                return null;
+     * @param country
+     * @return false if no group is found with the ID in the active tournament
+     */
+    public boolean incrementTournamentScore(String groupID, String userID, String country) {
+        String prefix = tournamentPrefix();
+        List<String> keys = List.of(groupMembersKey(prefix, groupID), groupScoresKey(prefix, groupID), prefix + COUNTRY_LEADERBOARD);
+
+        String threshold = refreshThreshold(groupLeaderboardTTL);
+
+        Long incremented = stringRedisTemplate.execute(incrementTournamentScoreScript, keys, userID, country, groupLeaderboardTTL, threshold);
+        if (incremented == null || incremented == 0) {
+            if (!loadGroupToRedis(Long.valueOf(groupID))) {
+                return false;
+            }
+            incremented = stringRedisTemplate.execute(incrementTournamentScoreScript, keys, userID, country, groupLeaderboardTTL, threshold);
+        }
+        return incremented != null && incremented == 1;
+    }
+
+    /**
+     * Cache the leaderboards of the newly formed groups in a single pipelined round trip, every leaderboard is written with a single command per key
+     * @param groups Map of (groupID, members of the group)
+     */
+    public void insertGroupLeaderboards(Map<String, List<UserInLeaderboard>> groups) {
+        long groupLeaderboardSeconds = Long.parseLong(groupLeaderboardTTL);
+        String prefix = tournamentPrefix();
+
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+
+            groups.forEach((groupID, members) -> {
+                Map<String, String> records = new HashMap<>();
+                Set<StringTuple> scores = new HashSet<>();
+                for (UserInLeaderboard member : members) {
+                    records.put(member.getUser_id(), ValueMapper.userInLeaderboardToRecord(member));
+                    scores.add(new DefaultStringTuple(member.getUser_id(), member.getScore()));
+                }
+
+                stringConnection.hMSet(groupMembersKey(prefix, groupID), records);
+                // Never overwrite a cached score, it may be ahead of the persistent storage
+                stringConnection.zAdd(groupScoresKey(prefix, groupID), scores, ZAddArgs.ifNotExists());
+                stringConnection.expire(groupMembersKey(prefix, groupID), groupLeaderboardSeconds);
+                stringConnection.expire(groupScoresKey(prefix, groupID), groupLeaderboardSeconds);
+            });
+            return null;
+        });
+    }
+
+    /**
+     * Cache the group assignments and the group leaderboard entries of many users in a single pipelined round trip
+     * @param userDetails Rows of {group ID, user ID, username, country, score}
+     */
+    public void insertUsersInGroupLeaderboards(List<Object[]> userDetails) {
+        long userGroupSeconds = Long.parseLong(userGroupTTL);
+        long groupLeaderboardSeconds = Long.parseLong(groupLeaderboardTTL);
+        String prefix = tournamentPrefix();
+
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+
+            for (Object[] userObj : userDetails) {
+                String groupID = userObj[0].toString();
+                String userID = userObj[1].toString();
+
+                UserInLeaderboard leaderboardUser = new UserInLeaderboard();
+                leaderboardUser.setUsername((String) userObj[2]);
+                leaderboardUser.setCountry(userObj[3].toString());
+
+                stringConnection.sAdd(prefix + PARTICIPANTS, userID);
+                stringConnection.set(prefix + userID, groupID, Expiration.seconds(userGroupSeconds), SetOption.upsert());
+                stringConnection.hSet(groupMembersKey(prefix, groupID), userID, ValueMapper.userInLeaderboardToRecord(leaderboardUser));
+                // Never overwrite a cached score, the group may have been loaded and played while the warm-up is running
+                stringConnection.zAdd(groupScoresKey(prefix, groupID), ((Integer) userObj[4]).doubleValue(), userID, ZAddArgs.ifNotExists());
+                stringConnection.expire(groupMembersKey(prefix, groupID), groupLeaderboardSeconds);
+                stringConnection.expire(groupScoresKey(prefix, groupID), groupLeaderboardSeconds);
             }
-            uil = (UserInLeaderboard) hashOps.get(groupID, userID);
-        }        
-        redisTemplate.expire(groupID, Integer.parseInt(groupLeaderboardTTL), TimeUnit.SECONDS);
+            return null;
+        });
+    }
+
+    /*
+     * The participant set of a tournament holds the IDs of every user who is in a group in that tournament, so that a user who is not in a group 
+     * can be answered without a query to the persistent storage. It is authoritative only after its ready marker is set, which happens 
+     * once the set is built from the persistent storage at start-up or when the set of a new tournament is started empty at midnight. 
+     * Members are added before their group is cached or persisted, so the set may hold a user whose group formation failed but never misses a participant
+     */
 
-        return uil;
+    /**
+     * Add the users to the participant set of the active tournament
+     * @param userIDs
+     */
+    public void addParticipants(List<String> userIDs) {
+        if (!userIDs.isEmpty()) {
+            stringRedisTemplate.opsForSet().add(tournamentPrefix() + PARTICIPANTS, userIDs.toArray(String[]::new));
+        }
+    }
+
+    /** Mark the participant set of the active tournament as complete */
+    public void markParticipantsReady() {
+        valueOps.set(tournamentPrefix() + PARTICIPANTS_READY, 1L);
     }
 
-    public void insertUserInGroupLeaderboard(String groupID, String userID, UserInLeaderboard leaderboardUser) {
-        hashOps.put(groupID, userID, leaderboardUser);
-        redisTemplate.expire(groupID, Integer.parseInt(groupLeaderboardTTL), TimeUnit.SECONDS);
+    /** @return true if the participant set of the active tournament is complete */
+    public boolean isParticipantSetReady() {
+        return Boolean.TRUE.equals(redisTemplate.hasKey(tournamentPrefix() + PARTICIPANTS_READY));
+    }
+
+    /**
+     * @param userID
+     * @return true only if the user is definitely not in a group in the active tournament
+     */
+    private boolean isNotParticipant(String userID) {
+        String prefix = tournamentPrefix();
+        Long participant = stringRedisTemplate.execute(isParticipantScript, List.of(prefix + PARTICIPANTS, prefix + PARTICIPANTS_READY), userID);
+        return participant != null && participant == 0;
     }
 
     public void setUserGroup(String userID, Long groupID) {
-        valueOps.set(userID, groupID, Integer.parseInt(userGroupTTL), TimeUnit.SECONDS);
+        stringValueOps.set(tournamentPrefix() + userID, groupID.toString(), Integer.parseInt(userGroupTTL), TimeUnit.SECONDS);
+    }
+
+    /**
+     * Cache the (userID, groupID) pairs of many users in a single pipelined round trip
+     * @param assignments Map of (userID, groupID)
+     */
+    public void setUserGroups(Map<String, Long> assignments) {
+        long userGroupSeconds = Long.parseLong(userGroupTTL);
+        String prefix = tournamentPrefix();
+
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            assignments.forEach((userID, groupID) -> 
+                stringConnection.set(prefix + userID, groupID.toString(), Expiration.seconds(userGroupSeconds), SetOption.upsert()));
+            return null;
+        });
     }
     
     /**
@@ -161,76 +460,530 @@ public class RedisService {
      * @return ID of the group that the user is assigned to, null if not in a group
      */
     public Long getUserGroup(String userID, boolean checkPersistentStorage) {
-        Object groupID = valueOps.get(userID);
+        // Read the group and reset the TTL in a single command
+        String groupID = stringValueOps.getAndExpire(tournamentPrefix() + userID, Duration.ofSeconds(Long.parseLong(userGroupTTL)));
         if (groupID != null) {
-            Long longGroupID = Long.valueOf(groupID.toString());
+            Long longGroupID = Long.parseLong(groupID);
 
-            setUserGroup(userID, longGroupID);
+            recordUserActivity(userID);
             return longGroupID;
         } else {
-            if (checkPersistentStorage) {
-                boolean loadSuccess = loadUserToRedis(userID);
-                if (loadSuccess) {
-                    groupID = valueOps.get(userID);
-                    return Long.valueOf(groupID.toString());
+            // Most of the misses are users who are not in the tournament, they are answered without a query to the persistent storage
+            if (checkPersistentStorage && !isNotParticipant(userID)) {
+                // The loaded group ID is returned as is, the cached one may already be expired or unlinked by a new tournament
+                Long loadedGroupID = loadUserToRedis(userID);
+                if (loadedGroupID != null) {
+                    recordUserActivity(userID);
+                    return loadedGroupID;
                 }    
             }
             return null;
         }
     }
 
+    /**
+     * Record the time of the user's last activity in the tournament, so that only the active users are warmed up after a restart.
+     * Only recorded in the 'active' warm-up mode
+     * @param userID
+     */
+    public void recordUserActivity(String userID) {
+        if (warmUpMode.equals("active")) {
+            stringZSetOps.add(USER_ACTIVITY, userID, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * @param window Length of the activity window (in milliseconds)
+     * @return (userID, time of the last activity) pairs of the users who were active in the window
+     */
+    public Set<TypedTuple<String>> getRecentUserActivity(long window) {
+        return stringZSetOps.rangeByScoreWithScores(USER_ACTIVITY, System.currentTimeMillis() - window, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Remove the users who were not active in the window from the activity set
+     * @param window Length of the activity window (in milliseconds)
+     */
+    public void trimUserActivity(long window) {
+        stringZSetOps.removeRangeByScore(USER_ACTIVITY, 0, System.currentTimeMillis() - window);
+    }
+
+    /*
+     * The unclaimed reward index is a hash of (userID, total unclaimed reward) that mirrors the unclaimed rewards in the persistent storage,
+     * so that the eligibility checks and the claims of the users without rewards are answered without a query. It is not tied to a tournament,
+     * the rewards stay unclaimed until the users claim them. It is authoritative only after its ready marker is set, once it is built at start-up
+     */
+
+    /**
+     * @param userID
+     * @return The total unclaimed reward of the user (0 if none), or null if the unclaimed reward index is not complete yet
+     */
+    public Long getUnclaimedReward(String userID) {
+        Long reward = stringRedisTemplate.execute(getUnclaimedRewardScript, List.of(UNCLAIMED_REWARDS, UNCLAIMED_REWARDS_READY), userID);
+        return (reward == null || reward < 0) ? null : reward;
+    }
+
+    /**
+     * Set the total unclaimed rewards of the users in the unclaimed reward index
+     * @param unclaimedRewards Map of (userID, total unclaimed reward)
+     */
+    public void setUnclaimedRewards(Map<String, Long> unclaimedRewards) {
+        Map<String, String> rewards = new HashMap<>();
+        unclaimedRewards.forEach((userID, reward) -> rewards.put(userID, reward.toString()));
+        if (!rewards.isEmpty()) {
+            stringHashOps.putAll(UNCLAIMED_REWARDS, rewards);
+        }
+    }
+
+    /**
+     * Remove the user from the unclaimed reward index once the rewards are claimed
+     * @param userID
+     */
+    public void removeUnclaimedReward(String userID) {
+        stringHashOps.delete(UNCLAIMED_REWARDS, userID);
+    }
+
+    /** Mark the unclaimed reward index as complete */
+    public void markUnclaimedRewardsReady() {
+        valueOps.set(UNCLAIMED_REWARDS_READY, 1L);
+    }
+
+    /** @return true if the unclaimed reward index is complete */
+    public boolean isUnclaimedRewardIndexReady() {
+        return Boolean.TRUE.equals(redisTemplate.hasKey(UNCLAIMED_REWARDS_READY));
+    }
+
+    /**
+     * Mark the rewards of the tournament as distributed; the marker is kept for two days, long enough to be seen by a node that restarts after the tournament closes
+     * @param tournamentDate
+     */
+    public void markRewardsDistributed(LocalDate tournamentDate) {
+        valueOps.set(REWARDS_DISTRIBUTED + tournamentDate, 1L, 2, TimeUnit.DAYS);
+    }
+
+    /**
+     * @param tournamentDate
+     * @return true if the rewards of the tournament are distributed completely
+     */
+    public boolean isRewardsDistributed(LocalDate tournamentDate) {
+        return Boolean.TRUE.equals(redisTemplate.hasKey(REWARDS_DISTRIBUTED + tournamentDate));
+    }
+
+    private String userProgressKey(String userID) {
+        return "User Progress:" + userID;
+    }
+
+    // The number of changes made to the coins of the user outside of the level ups, see scripts/begin_coin_changes.lua
+    private String coinChangesKey(String userID) {
+        return userProgressKey(userID) + ":Coin Changes";
+    }
+
+    /**
+     * Increment the cached level and coins of the user by one level and record the level up to be persisted by the LevelUpFlushScheduler.
+     * If the user is in a group of the active tournament, the tournament score of the level up is recorded along with it
+     * @param userID
+     * @param coinsPerLevel Coins earned per level
+     * @param groupID ID of the user's group in the active tournament, or null if the level up does not score
+     * @return {new level, new coins, number of users with pending level ups}, or null if the user's progress is not cached
+     */
+    @SuppressWarnings("unchecked")
+    public List<Long> incrementUserProgress(String userID, int coinsPerLevel, Long groupID) {
+        return nilToNull(stringRedisTemplate.execute(levelUpScript, List.of(userProgressKey(userID), PENDING_LEVEL_UPS, PENDING_SCORE_UPS), 
+                                            userID, String.valueOf(coinsPerLevel), userProgressTTL, refreshThreshold(userProgressTTL),
+                                            groupID != null ? groupID.toString() : ""));
+    }
+
+    /** The nil reply of a script that returns a List is read as a list of a single null element, convert it to null */
+    private static <T> List<T> nilToNull(List<T> result) {
+        return result == null || (result.size() == 1 && result.get(0) == null) ? null : result;
+    }
+
+    /**
+     * Cache the level and coins of the user, unless they are already cached. The level ups of the user that are not persisted yet are added to them
+     * @param userID
+     * @param level Level read from the persistent storage
+     * @param coins Coins read from the persistent storage
+     * @param coinsPerLevel Coins earned per level
+     * @param batchID ID of the level up batch that was being flushed when the level and coins were read, see getProgressReadState
+     * @param batchApplied true if that batch was already persisted when the level and coins were read
+     * @param coinChanges The number of coin changes of the user before the level and coins were read, see getProgressReadState
+     * @return false if another level up batch is being flushed or a coin change has begun since the level and coins were read, 
+     * in which case they must be read again
+     */
+    public boolean initUserProgress(String userID, int level, long coins, int coinsPerLevel, String batchID, boolean batchApplied, String coinChanges) {
+        Long initialized = stringRedisTemplate.execute(initUserProgressScript, 
+                                                        List.of(userProgressKey(userID), PENDING_LEVEL_UPS, FLUSHING_LEVEL_UPS, FLUSHING_LEVEL_UP_BATCH,
+                                                                coinChangesKey(userID)), 
+                                                        userID, String.valueOf(level), String.valueOf(coins), userProgressTTL, String.valueOf(coinsPerLevel),
+                                                        batchID != null ? batchID : "", batchApplied ? "1" : "0", coinChanges);
+        return initialized == null || initialized != -1;
+    }
+
+    /**
+     * Read the state that a progress read from the persistent storage is cached against, in a single round trip; it must be read before the progress
+     * @param userID
+     * @return {ID of the level up batch that is being flushed or null if there is none, number of coin changes of the user}
+     */
+    public String[] getProgressReadState(String userID) {
+        List<String> state = stringValueOps.multiGet(List.of(FLUSHING_LEVEL_UP_BATCH, coinChangesKey(userID)));
+        return new String[] { state.get(0), state.get(1) != null ? state.get(1) : "0" };
+    }
+
+    /**
+     * Read the cached level and coins of the user
+     * @param userID
+     * @return {level, coins}, or null if the user's progress is not cached
+     */
+    public long[] getUserProgress(String userID) {
+        List<Object> progress = stringRedisTemplate.opsForHash().multiGet(userProgressKey(userID), List.of("level", "coins"));
+        if (progress.get(0) == null || progress.get(1) == null) {
+            return null;
+        }
+        return new long[] { Long.parseLong(progress.get(0).toString()), Long.parseLong(progress.get(1).toString()) };
+    }
+
+    /**
+     * Remove the cached progress of the users, it is read from the persistent storage again on the next access
+     * @param userIDs
+     */
+    public void evictUserProgress(List<String> userIDs) {
+        if (!userIDs.isEmpty()) {
+            stringRedisTemplate.delete(userIDs.stream().map(this::userProgressKey).toList());
+        }
+    }
+
+    /**
+     * Count a change to the coins of the users before it is made in the persistent storage, so that the progress read while it is in progress
+     * is not cached and the change is applied once to the cached progress, see scripts/begin_coin_changes.lua
+     * @param userIDs
+     * @return The coin change counter of every user, to be passed to adjustUserCoins
+     */
+    public List<Long> beginCoinChanges(List<String> userIDs) {
+        List<String> keys = userIDs.stream().map(this::coinChangesKey).toList();
+        @SuppressWarnings("unchecked")
+        List<Long> coinChanges = stringRedisTemplate.execute(beginCoinChangesScript, keys, userProgressTTL);
+        return coinChanges;
+    }
+
+    /**
+     * Apply a change that is made to the coins in the persistent storage to the cached progress of the users. The progress that may already
+     * include the change, i.e. read from the persistent storage after the change began, is removed instead
+     * @param userIDs
+     * @param coinChanges The coin change counters returned by beginCoinChanges before the change was made
+     * @param delta Change in coins
+     */
+    public void adjustUserCoins(List<String> userIDs, List<Long> coinChanges, long delta) {
+        if (userIDs.isEmpty()) {
+            return;
+        }
+        List<String> keys = userIDs.stream().map(this::userProgressKey).toList();
+        List<String> args = new ArrayList<>();
+        args.add(String.valueOf(delta));
+        coinChanges.forEach(changes -> args.add(changes.toString()));
+        stringRedisTemplate.execute(adjustUserCoinsScript, keys, args.toArray());
+    }
+
+    /**
+     * Take the pending level ups and score ups to be persisted. They stay in Redis until ackPendingLevelUps is called,
+     * so that they are taken again with the same batch ID by the next flush if this one fails
+     * @param nodeID ID of the flushing node
+     * @param batchID ID of the new batch, used only if no batch is left by an earlier flush
+     * @param lockTimeout Time after which another node can take over the level ups if they are not acknowledged (in milliseconds)
+     * @return The batch of level ups, an empty batch if there is nothing to flush, or null if another node is flushing
+     */
+    public LevelUpBatchDTO drainPendingLevelUps(String nodeID, String batchID, long lockTimeout) {
+        @SuppressWarnings("unchecked")
+        List<Object> batch = nilToNull(stringRedisTemplate.execute(drainLevelUpsScript, 
+                                                        List.of(PENDING_LEVEL_UPS, FLUSHING_LEVEL_UPS, LEVEL_UP_FLUSH_LOCK, FLUSHING_LEVEL_UP_BATCH,
+                                                                PENDING_SCORE_UPS, FLUSHING_SCORE_UPS), 
+                                                        nodeID, String.valueOf(lockTimeout), batchID));
+        if (batch == null) {
+            return null;
+        }
+        if (batch.isEmpty()) {
+            return new LevelUpBatchDTO(null, Map.of(), Map.of());
+        }
+        return new LevelUpBatchDTO(batch.get(0).toString(), pairsToMap((List<?>) batch.get(1)), pairsToMap((List<?>) batch.get(2)));
+    }
+
+    /** Convert a flat {field, value, field, value, ...} reply of HGETALL to a map of the fields and their integer values */
+    private static Map<String, Long> pairsToMap(List<?> pairs) {
+        Map<String, Long> map = new HashMap<>();
+        for (int i = 0; i < pairs.size(); i += 2) {
+            map.put(pairs.get(i).toString(), Long.valueOf(pairs.get(i + 1).toString()));
+        }
+        return map;
+    }
+
+    /**
+     * Remove the level ups and score ups taken by drainPendingLevelUps once they are persisted
+     * @param nodeID ID of the flushing node
+     * @return false if the flush lock has timed out and the level ups may have been taken over by another node
+     */
+    public boolean ackPendingLevelUps(String nodeID) {
+        Long acked = stringRedisTemplate.execute(ackLevelUpsScript, 
+                                                List.of(FLUSHING_LEVEL_UPS, LEVEL_UP_FLUSH_LOCK, FLUSHING_LEVEL_UP_BATCH, FLUSHING_SCORE_UPS), nodeID);
+        return acked != null && acked == 1;
+    }
+
+    /**
+     * @return true if there are score ups that are not persisted yet, either pending or taken by a flush that is not acknowledged
+     */
+    public boolean hasPendingScoreUps() {
+        Long existing = stringRedisTemplate.countExistingKeys(List.of(PENDING_SCORE_UPS, FLUSHING_SCORE_UPS));
+        return existing != null && existing > 0;
+    }
+
+    /**
+     * Add the user to the country waiting queue; if every queue has a user after the entry, the group formers are woken up.
+     * In the 'local' matchmaking mode the entry is forwarded to the in-process matchmaker of the leader instead, 
+     * and the queue in Redis is only kept as the write-ahead log that a new leader recovers the queues from
+     * @param country
+     * @param userID
+     * @return false if the user is already in the queue
+     */
     public boolean insertToCountryQueue(String country, String userID) {
-        return zSetOps.add(country, userID, new Date().getTime());
+        List<String> keys = new ArrayList<>();
+        keys.add(country);
+        keys.addAll(COUNTRY_QUEUES);
+
+        String entriesChannel = "local".equals(matchmakingMode) ? QUEUE_ENTRIES_CHANNEL : "";
+        Long added = stringRedisTemplate.execute(enterCountryQueueScript, keys, userID, String.valueOf(new Date().getTime()), 
+                                                 GROUP_FORMATION_CHANNEL, entriesChannel);
+        return added != null && added == 1;
+    }
+
+    /**
+     * Read every country waiting queue in the order of entry
+     * @return Map of (country, user IDs)
+     */
+    public Map<String, List<String>> getCountryQueues() {
+        Map<String, List<String>> countryQueues = new HashMap<>();
+        for (String country : COUNTRY_QUEUES) {
+            Set<String> userIDs = stringZSetOps.range(country, 0, -1);
+            countryQueues.put(country, userIDs == null ? List.of() : new ArrayList<>(userIDs));
+        }
+        return countryQueues;
+    }
+
+    /**
+     * Remove the members of the groups formed by the in-process matchmaker from the country waiting queues
+     * and record the claimed groups in the group formation outbox, see scripts/claim_group_members.lua
+     * @param leaseValue The lease value of the leader, see LeaderElectionService
+     * @param firstGroupID The group ID of the first claimed group, the claimed groups are given consecutive IDs in their order
+     * @param groups List of groups, each group is an array of the userID strings of the group members in the order of Country.values()
+     * @return For every group, 0 if it is claimed, otherwise a bitmask of the members that are no longer in their queues; null if the caller is not the leader
+     */
+    public List<Long> claimGroupMembers(String leaseValue, long firstGroupID, List<String[]> groups) {
+        List<String> keys = new ArrayList<>();
+        keys.add(LeaderElectionService.LEADER_LEASE);
+        keys.add(GROUP_FORMATIONS);
+        keys.addAll(COUNTRY_QUEUES);
+
+        List<String> args = new ArrayList<>();
+        args.add(leaseValue);
+        args.add(String.valueOf(firstGroupID));
+        for (String[] userIDs : groups) {
+            args.addAll(Arrays.asList(userIDs));
+        }
+
+        @SuppressWarnings("unchecked")
+        List<Long> claims = stringRedisTemplate.execute(claimGroupMembersScript, keys, args.toArray());
+        return claims;
+    }
+
+    /** Create the consumer group of the group formation relays, including the events recorded before it, unless it exists */
+    public void createGroupFormationRelays() {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> 
+                ((StringRedisConnection) connection).xGroupCreate(GROUP_FORMATIONS, ReadOffset.from("0"), GROUP_FORMATION_RELAYS, true));
+        } catch (RedisSystemException ex) {
+            // BUSYGROUP: the group has been created by another node, any other error is not expected
+            String message = ex.getMostSpecificCause().getMessage();
+            if (message == null || !message.startsWith("BUSYGROUP")) {
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Read the group formation events that are not delivered to any relay yet, waiting for them up to the given duration
+     * @param consumer Name of the relay
+     * @param count The maximum number of events
+     * @param block
+     * @return List of events, each one with the fields 'firstGroupID' and 'members'
+     */
+    public List<MapRecord<String, String, String>> readGroupFormations(String consumer, int count, Duration block) {
+        // The single stream offset is passed as a generic varargs array
+        @SuppressWarnings("unchecked")
+        List<MapRecord<String, String, String>> events = stringRedisTemplate.<String, String>opsForStream().read(
+            Consumer.from(GROUP_FORMATION_RELAYS, consumer), 
+            StreamReadOptions.empty().count(count).block(block), 
+            StreamOffset.create(GROUP_FORMATIONS, ReadOffset.lastConsumed()));
+        return events == null ? List.of() : events;
+    }
+
+    /**
+     * Take over the group formation events that have been delivered but not acknowledged for the given duration,
+     * i.e. the relay that they were delivered to has stopped or failed to store them
+     * @param consumer Name of the relay
+     * @param minIdle
+     * @param count The maximum number of events
+     * @return List of events, each one with the fields 'firstGroupID' and 'members'
+     */
+    public List<MapRecord<String, String, String>> claimStaleGroupFormations(String consumer, Duration minIdle, int count) {
+        StreamOperations<String, String, String> streamOps = stringRedisTemplate.opsForStream();
+
+        List<RecordId> staleEventIDs = new ArrayList<>();
+        for (PendingMessage pending : streamOps.pending(GROUP_FORMATIONS, GROUP_FORMATION_RELAYS, Range.unbounded(), count)) {
+            if (pending.getElapsedTimeSinceLastDelivery().compareTo(minIdle) >= 0) {
+                staleEventIDs.add(pending.getId());
+            }
+        }
+        if (staleEventIDs.isEmpty()) {
+            return List.of();
+        }
+
+        // The events taken over by another relay in the mean time are skipped by XCLAIM, since they are no longer idle
+        return streamOps.claim(GROUP_FORMATIONS, GROUP_FORMATION_RELAYS, consumer, minIdle, staleEventIDs.toArray(RecordId[]::new));
+    }
+
+    /**
+     * Get the number of times a pending group formation event has been delivered to the relays
+     * @param eventID
+     * @return 0 if the event is no longer pending
+     */
+    public long getGroupFormationDeliveryCount(RecordId eventID) {
+        PendingMessages pending = stringRedisTemplate.opsForStream().pending(GROUP_FORMATIONS, GROUP_FORMATION_RELAYS, 
+                                                                             Range.closed(eventID.getValue(), eventID.getValue()), 1);
+        return pending.isEmpty() ? 0 : pending.get(0).getTotalDeliveryCount();
+    }
+
+    /**
+     * Move a group formation event that can never be stored to the dead letters in a single round trip: the event is recorded in the dead letter stream
+     * with its ID and the error, then acknowledged and removed from the outbox
+     * @param event
+     * @param error
+     */
+    public void deadLetterGroupFormation(MapRecord<String, String, String> event, String error) {
+        Map<String, String> fields = new HashMap<>(event.getValue());
+        fields.put("eventID", event.getId().getValue());
+        fields.put("error", String.valueOf(error));
+
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            stringConnection.xAdd(StreamRecords.string(fields).withStreamKey(GROUP_FORMATION_DEAD_LETTERS));
+            stringConnection.xAck(GROUP_FORMATIONS, GROUP_FORMATION_RELAYS, event.getId());
+            stringConnection.xDel(GROUP_FORMATIONS, event.getId());
+            return null;
+        });
+    }
+
+    /** Acknowledge and remove the stored group formation events in a single round trip */
+    public void ackGroupFormations(List<RecordId> eventIDs) {
+        RecordId[] ids = eventIDs.toArray(RecordId[]::new);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            stringConnection.xAck(GROUP_FORMATIONS, GROUP_FORMATION_RELAYS, ids);
+            stringConnection.xDel(GROUP_FORMATIONS, ids);
+            return null;
+        });
     }
 
     public void removeFromCountryQueue(String country, String userID) {
-        zSetOps.remove(country, userID);
+        stringZSetOps.remove(country, userID);
     }
 
     /**
      * Read user-related data from the persistent storage and update the Group Leaderboard hash and User-Group key-value pairs
      * @param userID
-     * @return true if cache is updated, false if the user is not a participant of the active tournament
+     * @return ID of the user's group if cache is updated, null if the user is not a participant of the active tournament
      */
-    public boolean loadUserToRedis(String userID) {
+    public Long loadUserToRedis(String userID) {
         LocalDateTime currentTimeUtc = DateUtil.getCurrentTimeUTC();
+        if (!DateUtil.isTournamentActive(currentTimeUtc)) {
+            return null;
+        }
 
-        List<Object[]> userDetailsList = userInTournamentRepository.findUserDetailsInTournament(UUID.fromString(userID), currentTimeUtc);
+        List<Object[]> userDetailsList = userInTournamentRepository.findUserDetailsInTournament(UUID.fromString(userID), currentTimeUtc.toLocalDate());
         if (userDetailsList.isEmpty()) { 
-            return false;
+            return null;
         }
 
         Object[] userDetails = userDetailsList.get(0);
-        setUserGroup(userDetails[1].toString(), Long.valueOf(userDetails[0].toString()));
+        Long groupID = Long.valueOf(userDetails[0].toString());
+        setUserGroup(userDetails[1].toString(), groupID);
 
-        boolean loadSuccess = loadGroupToRedis(Long.valueOf(userDetails[0].toString()));
-        return loadSuccess;
+        boolean loadSuccess = loadGroupToRedis(groupID);
+        return loadSuccess ? groupID : null;
     }
 
     /**
      * Read user-related data from the persistent storage and update the Group Leaderboard hash and User-Group key-value pairs
-     * for every user in a group.
+     * for every user in a group. The concurrent loads of a group are coalesced: a single load per node is in progress at a time, 
+     * and a short lease lets a single node query the persistent storage while the others wait for the cache to be updated
      * @param groupID
      * @return true if cache is updated, false if the group does not exists in the active tournament
      */
     public boolean loadGroupToRedis(Long groupID) {
+        CompletableFuture<Boolean> load = new CompletableFuture<>();
+        CompletableFuture<Boolean> loadInProgress = groupLoads.putIfAbsent(groupID, load);
+        if (loadInProgress != null) {
+            return loadInProgress.join();
+        }
+
+        try {
+            boolean loadSuccess = loadGroupToRedisWithLease(groupID);
+            load.complete(loadSuccess);
+            return loadSuccess;
+        } catch (RuntimeException ex) {
+            load.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            groupLoads.remove(groupID, load);
+        }
+    }
+
+    private boolean loadGroupToRedisWithLease(Long groupID) {
+        String prefix = tournamentPrefix();
+        String leaseKey = prefix + groupID + ":Loading";
+        long leaseSeconds = Long.parseLong(groupLoadLeaseTTL);
+
+        if (Boolean.TRUE.equals(stringRedisTemplate.opsForValue().setIfAbsent(leaseKey, nodeID, leaseSeconds, TimeUnit.SECONDS))) {
+            try {
+                return readGroupToRedis(groupID);
+            } finally {
+                stringRedisTemplate.execute(releaseLeaseScript, List.of(leaseKey), nodeID);
+            }
+        }
+
+        // Another node is loading the group, wait until it releases the lease
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(leaseSeconds);
+        while (Boolean.TRUE.equals(stringRedisTemplate.hasKey(leaseKey)) && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(GROUP_LOAD_POLL_INTERVAL);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(groupScoresKey(prefix, groupID.toString())))) {
+            return true;
+        }
+
+        // The other node found no such group, failed or is too slow; the group is read without the lease
+        return readGroupToRedis(groupID);
+    }
+
+    private boolean readGroupToRedis(Long groupID) {
         List<Object[]> usersInGroup = userInTournamentRepository.findUsersInGroup(groupID);
 
         if (usersInGroup.isEmpty()) {
             return false;
         }
 
-        for (Object[] userDetails: usersInGroup) {
-            UserInLeaderboard leaderboardUser = new UserInLeaderboard();
-            leaderboardUser.setUser_id(userDetails[1].toString());
-            leaderboardUser.setUsername((String) userDetails[2]);
-            leaderboardUser.setCountry(userDetails[3].toString());
-            leaderboardUser.setScore((Integer) userDetails[4]);
-            
-            // userDetails[0].toString() is the group ID and userDetails[1].toString() is the user ID
-            setUserGroup(userDetails[1].toString(), Long.valueOf(userDetails[0].toString()));
-            insertUserInGroupLeaderboard(userDetails[0].toString(), userDetails[1].toString(), leaderboardUser);    
-        }
+        // Every member of the group is written in a single round trip
+        insertUsersInGroupLeaderboards(usersInGroup);
         return true;
     }
     
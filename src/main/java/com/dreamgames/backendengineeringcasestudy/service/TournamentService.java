@@ -1,79 +1,48 @@
 package com.dreamgames.backendengineeringcasestudy.service;
 
 import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 import com.dreamgames.backendengineeringcasestudy.dto.LeaderboardDTO;
+import com.dreamgames.backendengineeringcasestudy.dto.UserResponseDTO;
 import com.dreamgames.backendengineeringcasestudy.entity.User;
+import com.dreamgames.backendengineeringcasestudy.entity.UserInTournament;
+import com.dreamgames.backendengineeringcasestudy.exception.DatabaseExpection;
 import com.dreamgames.backendengineeringcasestudy.exception.IllegalActionException;
 import com.dreamgames.backendengineeringcasestudy.exception.RequestTimeoutException;
-import com.dreamgames.backendengineeringcasestudy.repository.TournamentGroupRepository;
 import com.dreamgames.backendengineeringcasestudy.repository.UserInTournamentRepository;
-import com.dreamgames.backendengineeringcasestudy.scheduler.TournamentScheduler;
 import com.dreamgames.backendengineeringcasestudy.util.DateUtil;
+import com.dreamgames.backendengineeringcasestudy.util.UUIDUtil;
+import com.dreamgames.backendengineeringcasestudy.util.ValueMapper;
 
 import lombok.RequiredArgsConstructor;
 
 @Service
 @RequiredArgsConstructor
 public class TournamentService {
-    Logger logger = LoggerFactory.getLogger(TournamentScheduler.class);
-
-    @Value("${scheduler.groupFormationFrequency}")
-    private String groupFormationFreq;
+    Logger logger = LoggerFactory.getLogger(TournamentService.class);
 
     @Value("${scheduler.waitForOtherPlayersTimeout}")
     private String waitForOtherPlayersTimeout;
 
     private final RedisService redisService;
+    private final GroupAssignmentService groupAssignmentService;
+    private final UserService userService;
 
-    private final TournamentGroupRepository tournamentGroupRepository;
-    private final UserInTournamentRepository userInTournamentRepository;
-
-    /**
-     * Loop until the user is assigned to a group or the waitForOtherPlayersTimeout timeouts 
-     * @param userID - user_id field of the user
-     * @param country - country assigned to the user
-     * @return group id
-     */
-    @Async
-    private CompletableFuture<Long> waitForOtherPlayers(String userID, String country) {
-        // Looping frequency is (group formation frequency) / 2, a reference to the Nyquist Theorem
-        int loopFrequency = Integer.parseInt(groupFormationFreq) / 2;
+    private final Executor asyncTaskExecutor;
 
-        // Number of loopFrequency in waitForOtherPlayersTimeout, to convert time into number of trials
-        int maxTrial = Integer.parseInt(waitForOtherPlayersTimeout) / loopFrequency;
-
-        // Loop until a group is formed
-        logger.info("User with id %s from %s joins the queue in order to enter the tournament".formatted(userID, country));
-
-        int trial = 0;
-        while (true) {     
-            if (trial >= maxTrial) {
-                redisService.removeFromCountryQueue(country, userID);
-                logger.warn("The tournament entry request of user %s from %s has been timed out".formatted(userID, country));
-                throw new RequestTimeoutException("A timeout occured while waiting for other players");
-            } else { trial++; }
-            
-            Long groupID = redisService.getUserGroup(userID, false);
-            if (groupID != null) {
-                logger.info("User %s from %s has entered the tournament. Waiting time: %sms".formatted(userID, country, loopFrequency*trial));
-                return CompletableFuture.completedFuture(groupID);
-            }
-            try {
-                Thread.sleep(loopFrequency);
-            } catch (InterruptedException e) {}
-        }
-    }
+    private final UserInTournamentRepository userInTournamentRepository;
 
     /**
      * Check if the user is allowed to participate in a tournament
@@ -81,8 +50,7 @@ public class TournamentService {
      * @throws IllegalActionException
      */
     private void isAllowedInTournament(User user) throws IllegalActionException {
-        LocalDateTime currentTimeUtc = DateUtil.getCurrentTimeUTC();
-        if (currentTimeUtc.getHour() >= 20) {
+        if (!DateUtil.isTournamentActive(DateUtil.getCurrentTimeUTC())) {
             throw new IllegalActionException("Daily tournaments are held between 00.00 and 20.00 UTC");
         }
 
@@ -98,18 +66,25 @@ public class TournamentService {
             throw new IllegalActionException("You are already in the tournament");
         }
 
-        if (userInTournamentRepository.existsUnclaimedRewards(user.getUser_id()) == true) {
+        // The unclaimed reward index answers without a query once it is complete
+        Long unclaimedRewards = redisService.getUnclaimedReward(user.getUser_id().toString());
+        boolean hasUnclaimedRewards = unclaimedRewards != null 
+            ? unclaimedRewards > 0 
+            : userInTournamentRepository.existsUnclaimedRewards(user.getUser_id());
+        if (hasUnclaimedRewards) {
             throw new IllegalActionException("You have unclaimed rewards. You must claim your rewards from the previous tournament to participate in the new one");
         }
     }
 
     /**
-     * Place the user into the queue, wait for other players, read and return the group leaderboard created by the GroupFormationScheduler
+     * Place the user into the queue and return a promise of the group leaderboard, which is completed when the GroupFormationScheduler
+     * assigns the user to a group. No thread is held while the user is waiting for other players
      * @param user The user entity
-     * @return Group leaderboard in DTO format
+     * @return Promise of the group leaderboard in DTO format
      */
-    public LeaderboardDTO enterTournament(User user) {
-        UUID userID = user.getUser_id();
+    public CompletableFuture<LeaderboardDTO> enterTournament(User user) {
+        String userID = user.getUser_id().toString();
+        String country = user.getCountry().toString();
 
         // Check if the user is eligible to enter a tournament
         try {
@@ -118,26 +93,48 @@ public class TournamentService {
             throw ex;
         }
 
+        // Register the user as a waiter before entering the queue, so that the group assignment cannot be missed 
+        CompletableFuture<Long> groupIDPromise = groupAssignmentService.register(userID);
+        if (groupIDPromise == null) {
+            throw new IllegalActionException("You are already in a queue");
+        }
+
         // Add the user to his/her country queue 
-        boolean is_added = redisService.insertToCountryQueue(user.getCountry().toString(), userID.toString());
+        boolean is_added = redisService.insertToCountryQueue(country, userID);
 
         if (!is_added) {
+            groupAssignmentService.unregister(userID, groupIDPromise);
             throw new IllegalActionException("You are already in a queue");
         }
+        logger.info("User with id %s from %s joins the queue in order to enter the tournament".formatted(userID, country));
 
-        CompletableFuture<Long> groupIDPromise = waitForOtherPlayers(userID.toString(), user.getCountry().toString());
-        CompletableFuture.allOf(groupIDPromise).join();
-
-        // Convert the group leaderboard to a DTO
-        LeaderboardDTO leaderboardDTO = new LeaderboardDTO("group");
-        try {
-            String groupID = groupIDPromise.get().toString();
-
-            // Get the group leaderboard
-            return redisService.getGroupLeaderboard(groupID, false);
-        } catch (InterruptedException | ExecutionException e) {} 
-
-        return leaderboardDTO;        
+        long entryTime = System.currentTimeMillis();
+        return groupIDPromise
+                .orTimeout(Long.parseLong(waitForOtherPlayersTimeout), TimeUnit.MILLISECONDS)
+                .handleAsync((groupID, ex) -> {
+                    groupAssignmentService.unregister(userID, groupIDPromise);
+
+                    if (ex != null) {
+                        // The group of the user could not be stored, the user has already left the queue
+                        Throwable cause = ex instanceof CompletionException ? ex.getCause() : ex;
+                        if (cause instanceof DatabaseExpection failure) {
+                            logger.warn("The group of user %s from %s could not be formed".formatted(userID, country));
+                            throw failure;
+                        }
+
+                        // The group assignment may have been published while the subscription was down, check the cache before giving up
+                        groupID = redisService.getUserGroup(userID, false);
+                        if (groupID == null) {
+                            redisService.removeFromCountryQueue(country, userID);
+                            logger.warn("The tournament entry request of user %s from %s has been timed out".formatted(userID, country));
+                            throw new RequestTimeoutException("A timeout occured while waiting for other players");
+                        }
+                    }
+                    logger.info("User %s from %s has entered the tournament. Waiting time: %sms".formatted(userID, country, System.currentTimeMillis() - entryTime));
+
+                    // Get the group leaderboard
+                    return redisService.getGroupLeaderboard(groupID.toString(), false);
+                }, asyncTaskExecutor);
     }
 
     /**
@@ -159,8 +156,7 @@ public class TournamentService {
     /** Get the country leaderboard */
     public LeaderboardDTO getCountryLeaderboard() {
         // Check if a tournament is active
-        LocalDateTime currentTimeUtc = DateUtil.getCurrentTimeUTC();
-        if (currentTimeUtc.getHour() >= 20) {
+        if (!DateUtil.isTournamentActive(DateUtil.getCurrentTimeUTC())) {
             throw new IllegalActionException("No active tournaments... Daily tournaments are held between 00.00 and 20.00 UTC");
         }
 
@@ -174,25 +170,72 @@ public class TournamentService {
      * @return user's rank
      */
     public int getUserRank(UUID userID, LocalDateTime date) {
-        Optional<Long> groupID = tournamentGroupRepository.getTournamentGroupIDByDate(userID, date);
+        // The rank in an ongoing tournament is read from the cached group leaderboard
+        if (date.toLocalDate().equals(DateUtil.getCurrentTimeUTC().toLocalDate())) {
+            Long activeGroupID = redisService.getUserGroup(userID.toString(), true);
+            if (activeGroupID != null) {
+                Integer rank = redisService.getUserRankInGroup(activeGroupID.toString(), userID.toString());
+                if (rank == null && redisService.getGroupLeaderboard(activeGroupID.toString(), true) != null) {
+                    rank = redisService.getUserRankInGroup(activeGroupID.toString(), userID.toString());
+                }
+                if (rank != null) {
+                    return rank;
+                }
+            }
+        }
 
-        if (groupID.isEmpty()) {
+        Optional<UserInTournament> userInTournament = userInTournamentRepository.findUserInTournament(userID, date.toLocalDate());
+
+        if (userInTournament.isEmpty()) {
             throw new IllegalActionException("You were not in a tournament on %s".formatted(date));
         }
-        return userInTournamentRepository.findUserRankInGroup(userID, date);
+        // The final ranks of the ended tournaments are stored, the rank is calculated only if the tournament has not been ranked yet
+        if (userInTournament.get().getFinal_rank() != null) {
+            return userInTournament.get().getFinal_rank();
+        }
+        return userInTournamentRepository.findUserRankInGroup(userID, date.toLocalDate());
     }
 
     /**
-     * Update the persistant storage to claim the reward (update the user's coins and set is_reward_claimed to true)
+     * Claim the rewards of the user in a single call to the persistent storage, which marks the rewards as claimed, credits the coins 
+     * and returns the new progress of the user
      * @param userID The user entity
+     * @return The progress of the user after the claim
      */
-    public void claimReward(UUID userID) {
-        boolean existsUnclaimedRewards = userInTournamentRepository.existsUnclaimedRewards(userID);
-        if (!existsUnclaimedRewards) {
+    public UserResponseDTO claimReward(UUID userID) {
+        // The users without rewards are rejected by the unclaimed reward index without a query
+        Long cachedRewards = redisService.getUnclaimedReward(userID.toString());
+        if (cachedRewards != null && cachedRewards == 0) {
             throw new IllegalActionException("No rewards to claim");
         }
 
-        userInTournamentRepository.claimReward(userID);
+        // Counted before the claim, so that the claimed coins are applied once to the cached progress even if it is reloaded during the claim
+        List<Long> coinChanges = redisService.beginCoinChanges(List.of(userID.toString()));
+        List<Object[]> claimResult = userInTournamentRepository.claimReward(UUIDUtil.toBytes(userID));
+        if (claimResult.isEmpty()) {
+            throw new DatabaseExpection("User with the user ID %s could not be found in the database".formatted(userID));
+        }
+        // claim[0] is the claimed reward; claim[1] and claim[2] are the persisted level and coins, which miss the pending level ups 
+        Object[] claim = claimResult.get(0);
+        long claimedReward = ((Number) claim[0]).longValue();
+
+        redisService.removeUnclaimedReward(userID.toString());
+        if (claimedReward == 0) {
+            throw new IllegalActionException("No rewards to claim");
+        }
+
+        // Apply the same change to the cached progress of the user, which may be ahead of the persistent storage with the pending level ups
+        redisService.adjustUserCoins(List.of(userID.toString()), coinChanges, claimedReward);
+        long[] progress = redisService.getUserProgress(userID.toString());
+        if (progress == null) {
+            progress = userService.loadUserProgressToRedis(userID);
+        }
+
+        User user = new User();
+        user.setLevel((int) progress[0]);
+        user.setCoins(progress[1]);
+
+        return ValueMapper.userToDTO(user, null);
     }
 
 }
@@ -1,32 +1,47 @@
 package com.dreamgames.backendengineeringcasestudy.service;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.UUID;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
 import org.springframework.orm.jpa.JpaSystemException;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
 
 import com.dreamgames.backendengineeringcasestudy.dto.UserResponseDTO;
 import com.dreamgames.backendengineeringcasestudy.entity.User;
-import com.dreamgames.backendengineeringcasestudy.entity.UserInLeaderboard;
 import com.dreamgames.backendengineeringcasestudy.enums.Country;
 import com.dreamgames.backendengineeringcasestudy.exception.DatabaseExpection;
 import com.dreamgames.backendengineeringcasestudy.repository.UserRepository;
+import com.dreamgames.backendengineeringcasestudy.scheduler.LevelUpFlushScheduler;
+import com.dreamgames.backendengineeringcasestudy.util.DateUtil;
 import com.dreamgames.backendengineeringcasestudy.util.ValueMapper;
 
-import lombok.AllArgsConstructor;
+import lombok.RequiredArgsConstructor;
 
 @Service
-@AllArgsConstructor
+@RequiredArgsConstructor
 public class UserService {
 
+    /** Coins earned per level */
+    public static final int COINS_PER_LEVEL = 25;
+
+    // Number of times a level up reloads the progress of the user if it is not cached
+    private static final int MAX_PROGRESS_LOADS = 3;
+
+    @Value("${writeBehind.flushThreshold}")
+    private String levelUpFlushThreshold;
+
     private final UserRepository userRepository;  
 
     private final RedisService redisService;
-    private final SecurityService securityService;;
+    private final SecurityService securityService;
+
+    private final LevelUpFlushScheduler levelUpFlushScheduler;
 
     private final Country[] countries = Country.values();
     private Country getRandomCountry() {
@@ -61,54 +76,71 @@ public class UserService {
     }
 
     /**
-     * Increment the score of the user's country in Country Leaderboard sorted and increment the user's score in his/her group's leaderboard hash 
+     * Increment the score of the user's country in Country Leaderboard sorted and increment the user's score in his/her group's leaderboard
+     * in a single round trip
      * @param userID User ID of the user
      * @param country Country of the user
      * @param groupID Group ID of the user
      */
-    @Async
     private void updateTournamentScores(String userID, String country, String groupID) {
         // Update cache
-        redisService.updateCountryLeaderboard(country, Double.valueOf(1));
-
-        UserInLeaderboard uil = redisService.getUserInGroupLeaderboard(groupID, userID);
-        if (uil != null) {
-            uil.increment();
-            redisService.insertUserInGroupLeaderboard(groupID, userID, uil);
-        } else {
-
-        }
+        redisService.incrementTournamentScore(groupID, userID, country);
     }
 
     /**
-     * Update the user's level by 1; if the user is in a tournament, update the persistant storage and the cache accordingly
+     * Update the user's level by 1; if the user is in a tournament, update the cache accordingly.
+     * The level up is applied to the cached progress of the user and persisted later by the LevelUpFlushScheduler
      * @param userID ID of the user
      * @param country Country of the user
      * @return A DTO for the progress (the new level and the new score)
      */
     public UserResponseDTO updateUserLevel(String userID, String country) {
-        UserResponseDTO progress;  
-
-        // Update persistent storage
-        int affectedRows = userRepository.updateUserLevel(UUID.fromString(userID));
-        if (affectedRows == 1) {
-            Long groupID = redisService.getUserGroup(userID, true);
-            if (groupID != null) {
-                // Update the cache
-                updateTournamentScores(userID, country, groupID.toString());
-            }
+        // The scores are frozen once the tournament ends at 20.00; a level up scores if it happens before then, even if it is persisted after
+        Long groupID = DateUtil.isTournamentActive(DateUtil.getCurrentTimeUTC()) ? redisService.getUserGroup(userID, true) : null;
+
+        List<Long> progress = redisService.incrementUserProgress(userID, COINS_PER_LEVEL, groupID);
+        // The progress is not cached, read it from the persistent storage and try again; it may be evicted again before the retry
+        for (int load = 0; progress == null && load < MAX_PROGRESS_LOADS; load++) {
+            loadUserProgressToRedis(UUID.fromString(userID));
+            progress = redisService.incrementUserProgress(userID, COINS_PER_LEVEL, groupID);
+        }
+        if (progress == null) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "The progress of the user cannot be cached, try again later");
+        }
+
+        // Do not wait for the next scheduled flush if too many users have pending level ups
+        if (progress.get(2) >= Long.parseLong(levelUpFlushThreshold)) {
+            levelUpFlushScheduler.requestFlush();
+        }
 
-            progress = getUserProgress(UUID.fromString(userID));
-        } else { 
-            throw new DatabaseExpection("User with the user ID %s could not be found in the database".formatted(userID));
+        if (groupID != null) {
+            // Update the cache
+            updateTournamentScores(userID, country, groupID.toString());
         }
 
-        return progress;
+        User user = new User();
+        user.setLevel(progress.get(0).intValue());
+        user.setCoins(progress.get(1));
+
+        return ValueMapper.userToDTO(user, null);
     }
 
+    /**
+     * Read the user from the persistent storage. The level and coins are overwritten by the cached progress of the user if it exists,
+     * since the persistent storage may not have the latest level ups yet
+     * @param userID ID of the user
+     * @return The user entity
+     */
     public User getUser(UUID userID) {
-        return userRepository.findById(userID)
+        User user = userRepository.findById(userID)
                                 .orElseThrow(() -> new DatabaseExpection("User not found"));
+
+        long[] progress = redisService.getUserProgress(userID.toString());
+        if (progress != null) {
+            user.setLevel((int) progress[0]);
+            user.setCoins(progress[1]);
+        }
+        return user;
     }
 
     /**
@@ -117,15 +149,46 @@ public class UserService {
      * @return A DTO for the progress (user's level and score)
      */
     public UserResponseDTO getUserProgress(UUID userID) {
-        Map<String, Object> result = userRepository.findLevelAndCoinsByUserId(userID);
+        long[] progress = redisService.getUserProgress(userID.toString());
+        if (progress == null) {
+            progress = loadUserProgressToRedis(userID);
+        }
 
         User user = new User();
-        int newLevel = (int) result.get("level");
-        long newCoins = (long) result.get("coins");
-        user.setLevel(newLevel);
-        user.setCoins(newCoins);
+        user.setLevel((int) progress[0]);
+        user.setCoins(progress[1]);
 
         return ValueMapper.userToDTO(user, null);
     }
 
+    /**
+     * Read the level and coins of the user from the persistent storage and cache them together with the level ups that are not persisted yet
+     * @param userID ID of the user
+     * @return {level, coins}
+     */
+    public long[] loadUserProgressToRedis(UUID userID) {
+        while (true) {
+            // The level ups of the batch that is being flushed are pending only if the batch is not persisted at the time of the read,
+            // and the coins are cached only if no coin change has begun since before the read
+            String[] readState = redisService.getProgressReadState(userID.toString());
+            String batchID = readState[0];
+            Map<String, Object> result = userRepository.findProgressByUserId(userID, batchID != null ? UUID.fromString(batchID) : null);
+            if (result == null) {
+                throw new DatabaseExpection("User with the user ID %s could not be found in the database".formatted(userID));
+            }
+
+            int level = ((Number) result.get("level")).intValue();
+            long coins = ((Number) result.get("coins")).longValue();
+            boolean batchApplied = ((Number) result.get("batch_applied")).intValue() == 1;
+            if (redisService.initUserProgress(userID.toString(), level, coins, COINS_PER_LEVEL, batchID, batchApplied, readState[1])) {
+                // Either cached now or by a concurrent request, read it back since it includes the pending level ups
+                long[] progress = redisService.getUserProgress(userID.toString());
+                if (progress != null) {
+                    return progress;
+                }
+            }
+            // Another batch has been taken for a flush or a coin change has begun since the read, or the progress has expired again
+        }
+    }
+
 }
@@ -17,6 +17,15 @@ public class DateUtil {
         return nowUtc.toLocalDateTime();
     }
 
+    /**
+     * Check if the tournament of the day is active; daily tournaments are held between 00.00 and 20.00 UTC
+     * @param time A UTC time
+     * @return true if a tournament is active at the given time
+     */
+    public static boolean isTournamentActive(LocalDateTime time) {
+        return time.getHour() < 20;
+    }
+
     /**
      * Parse a date string argument into a LocalDateTime object
      * @param date A date string in the 'yyyy-MM-dd' format
@@ -0,0 +1,28 @@
+package com.dreamgames.backendengineeringcasestudy.util;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+public class UUIDUtil {
+    /**
+     * Convert a UUID into the BINARY(16) representation used by the database, so that it can be bound in plain JDBC statements
+     * @param uuid
+     * @return 16 bytes of the UUID in big-endian order
+     */
+    public static byte[] toBytes(UUID uuid) {
+        return ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array();
+    }
+
+    /**
+     * Convert the BINARY(16) representation used by the database into a UUID
+     * @param bytes 16 bytes of the UUID in big-endian order
+     * @return UUID
+     */
+    public static UUID fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+}
@@ -1,5 +1,8 @@
 package com.dreamgames.backendengineeringcasestudy.util;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import org.springframework.data.redis.core.DefaultTypedTuple;
@@ -37,20 +40,53 @@ public class ValueMapper {
 
     /**
      * Construct a LeaderboardDTO object with type "group" for the given leaderboard
-     * @param leaderboard An Object array of UserInLeaderboard objects. 
+     * @param leaderboard A flat list of (userID, member record, score) triples in descending order of score, as returned by scripts/read_group_leaderboard.lua;
+     *                    the users without a member record are skipped
      * @return LeaderboardDTO
      */
-    public static LeaderboardDTO groupLeaderboardToDTO(Object[] leaderboard) {
+    public static LeaderboardDTO groupLeaderboardToDTO(List<Object> leaderboard) {
         LeaderboardDTO leaderboardDTO = new LeaderboardDTO("group");
 
-        for (int i = 0; i < 5; i++) {
-            UserInLeaderboard user = (UserInLeaderboard) leaderboard[i];
-            leaderboardDTO.addElementToLeaderboard(user.getUser_id(), user.getUsername(), user.getCountry(), user.getScore());
+        for (int i = 0; i + 2 < leaderboard.size(); i += 3) {
+            String record = (String) leaderboard.get(i + 1);
+            int separator = record == null ? -1 : record.indexOf('|');
+            if (separator < 0) {
+                continue;
+            }
+
+            leaderboardDTO.addElementToLeaderboard(
+                (String) leaderboard.get(i), 
+                record.substring(separator + 1), 
+                record.substring(0, separator), 
+                (int) Math.round(Double.parseDouble((String) leaderboard.get(i + 2)))
+            );
         }
         
         return leaderboardDTO;
     }
 
+    /**
+     * Construct the compact record of a user that is cached in a group leaderboard
+     * @param user The UserInLeaderboard object
+     * @return "country|username"; the country names never contain a '|', so the record is split at the first one
+     */
+    public static String userInLeaderboardToRecord(UserInLeaderboard user) {
+        return user.getCountry() + "|" + user.getUsername();
+    }
+
+    /**
+     * Construct the map of the unclaimed rewards that is cached in the unclaimed reward index
+     * @param unclaimedRewards Rows of {user ID, total unclaimed reward}
+     * @return Map of (userID, total unclaimed reward)
+     */
+    public static Map<String, Long> unclaimedRewardsToMap(List<Object[]> unclaimedRewards) {
+        Map<String, Long> rewardMap = new HashMap<>();
+        for (Object[] rewardObj : unclaimedRewards) {
+            rewardMap.put(rewardObj[0].toString(), ((Number) rewardObj[1]).longValue());
+        }
+        return rewardMap;
+    }
+
     /**
      * Construct a LeaderboardDTO object with type "country" for the given leaderboard
      * @param leaderboard An Object array of DefaultTypedTuple objects.
@@ -0,0 +1,16 @@
+-- Acknowledge that the level ups and score ups taken by drain_level_ups.lua are persisted
+-- KEYS[1]: The hash of level ups that are being flushed
+-- KEYS[2]: The flush lock
+-- KEYS[3]: The ID of the batch of level ups that are being flushed
+-- KEYS[4]: The hash of score ups that are being flushed
+-- ARGV[1]: ID of the node
+-- Returns 1 on success, 0 if the lock has timed out and the level ups have been taken over by another node
+
+local owner = redis.call('GET', KEYS[2])
+if owner and owner ~= ARGV[1] then
+    return 0
+end
+
+redis.call('DEL', KEYS[1], KEYS[3], KEYS[4], KEYS[2])
+
+return 1
@@ -0,0 +1,31 @@
+-- Acquire or renew the leadership lease; a new fencing token is issued on every acquisition
+-- KEYS[1]: The leader lease, its value is "<node ID>:<fencing token>"
+-- KEYS[2]: The fencing token counter
+-- KEYS[3]: Time of the last renewal of the lease by any leader (in milliseconds)
+-- ARGV[1]: ID of the node
+-- ARGV[2]: Lease time (in milliseconds)
+-- Returns {fencing token, -1} if the lease is renewed, {fencing token, milliseconds since the last renewal of the previous leader} 
+-- if the lease is acquired, or {0, -1} if the lease is held by another node
+
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+local holder = redis.call('GET', KEYS[1])
+if holder then
+    local node, token = string.match(holder, '^(.*):(%d+)$')
+    if node ~= ARGV[1] then
+        return {0, -1}
+    end
+
+    redis.call('PEXPIRE', KEYS[1], ARGV[2])
+    redis.call('SET', KEYS[3], now)
+    return {tonumber(token), -1}
+end
+
+local token = redis.call('INCR', KEYS[2])
+local lastRenewal = tonumber(redis.call('GET', KEYS[3]) or now)
+
+redis.call('SET', KEYS[1], ARGV[1] .. ':' .. token, 'PX', ARGV[2])
+redis.call('SET', KEYS[3], now)
+
+return {token, now - lastRenewal}
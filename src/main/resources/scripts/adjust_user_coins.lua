@@ -0,0 +1,18 @@
+-- Apply a change made to the coins in the persistent storage (entrance fees, rewards) to the cached progress of the users
+-- KEYS: The progress hashes of the users
+-- ARGV[1]: The change in coins
+-- ARGV[2..n+1]: The coin change counter of every user returned by scripts/begin_coin_changes.lua when the change began
+-- A progress that was read before the change began is adjusted. A progress that was read after it may already include the change, 
+-- so it is removed instead of being adjusted twice; it is read from the persistent storage again on the next access, as are the ones that are not cached
+
+for i, progress in ipairs(KEYS) do
+    if redis.call('EXISTS', progress) == 1 then
+        if tonumber(redis.call('HGET', progress, 'coinChanges') or '0') < tonumber(ARGV[i + 1]) then
+            redis.call('HINCRBY', progress, 'coins', ARGV[1])
+        else
+            redis.call('DEL', progress)
+        end
+    end
+end
+
+return 0
@@ -0,0 +1,14 @@
+-- Count a change to the coins of the users that is about to be made in the persistent storage (entrance fees, rewards), before it is made.
+-- A progress that is read from the persistent storage while the change is in progress cannot tell whether it includes the change,
+-- so it is not cached (see scripts/init_user_progress.lua), and a cached progress is adjusted only if it was read before the change began
+-- KEYS: The coin change counters of the users
+-- ARGV[1]: TTL of the counters (in seconds), longer than any change and any read of the progress
+-- Returns the new counter of every user, to be passed to scripts/adjust_user_coins.lua once the change is persisted
+
+local changes = {}
+for i, counter in ipairs(KEYS) do
+    changes[i] = redis.call('INCR', counter)
+    redis.call('EXPIRE', counter, ARGV[1])
+end
+
+return changes
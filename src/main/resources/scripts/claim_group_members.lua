@@ -0,0 +1,45 @@
+-- Remove the members of the groups formed by the in-process matchmaker from the country waiting queues 
+-- and record the claimed groups as a group formation event in a single atomic call
+-- KEYS[1]: The leader lease of the group formation, see acquire_leadership.lua
+-- KEYS[2]: The group formation outbox (stream), see GroupFormationRelay
+-- KEYS[3..n]: The country waiting queues, in the order of the members of a group
+-- ARGV[1]: The lease value of the caller, "<node ID>:<fencing token>"
+-- ARGV[2]: The group ID of the first claimed group, the claimed groups are given consecutive IDs in their order
+-- ARGV[3..m]: The user IDs of the members, group by group
+-- Returns a number for every group: 0 if its members are removed from the queues, otherwise a bitmask of the members that are no longer
+-- in their queues (e.g. they have timed out), in which case none of the members is removed.
+-- Returns nil if the caller does not hold the lease with the given fencing token, so that a leader whose lease has expired cannot claim any user
+
+if redis.call('GET', KEYS[1]) ~= ARGV[1] then
+    return false
+end
+
+local countryCount = #KEYS - 2
+local groupCount = math.floor((#ARGV - 2) / countryCount)
+
+local results = {}
+local claimed = {}
+for g = 0, groupCount - 1 do
+    local missing = 0
+    local bit = 1
+    for c = 1, countryCount do
+        if not redis.call('ZSCORE', KEYS[c + 2], ARGV[2 + g * countryCount + c]) then
+            missing = missing + bit
+        end
+        bit = bit * 2
+    end
+
+    if missing == 0 then
+        for c = 1, countryCount do
+            redis.call('ZREM', KEYS[c + 2], ARGV[2 + g * countryCount + c])
+            claimed[#claimed + 1] = ARGV[2 + g * countryCount + c]
+        end
+    end
+    results[#results + 1] = missing
+end
+
+if #claimed > 0 then
+    redis.call('XADD', KEYS[2], '*', 'firstGroupID', ARGV[2], 'members', table.concat(claimed, ','))
+end
+
+return results
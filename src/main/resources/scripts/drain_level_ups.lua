@@ -0,0 +1,38 @@
+-- Take the pending level ups and score ups for a write-behind flush
+-- KEYS[1]: The hash of pending level ups (userID -> number of level ups that are not persisted yet)
+-- KEYS[2]: The hash of level ups that are being flushed
+-- KEYS[3]: The flush lock, only one node can flush at a time
+-- KEYS[4]: The ID of the batch of level ups that are being flushed
+-- KEYS[5]: The hash of pending score ups ('groupID:userID' -> tournament score that is not persisted yet)
+-- KEYS[6]: The hash of score ups that are being flushed
+-- ARGV[1]: ID of the node
+-- ARGV[2]: Timeout of the flush lock (in milliseconds)
+-- ARGV[3]: ID of the new batch, used only if there is no batch that is being flushed
+-- Returns {batchID, {userID, count, ...}, {'groupID:userID', score, ...}}, {} if there is nothing to flush, or nil if another node is flushing
+-- If a previous flush has failed or its node has crashed, its batch is returned again with the same ID before the pending level ups
+
+if not redis.call('SET', KEYS[3], ARGV[1], 'NX', 'PX', ARGV[2]) then
+    return false
+end
+
+if redis.call('EXISTS', KEYS[2]) == 0 and redis.call('EXISTS', KEYS[6]) == 0 then
+    if redis.call('EXISTS', KEYS[1]) == 0 and redis.call('EXISTS', KEYS[5]) == 0 then
+        redis.call('DEL', KEYS[3])
+        return {}
+    end
+    if redis.call('EXISTS', KEYS[1]) == 1 then
+        redis.call('RENAME', KEYS[1], KEYS[2])
+    end
+    if redis.call('EXISTS', KEYS[5]) == 1 then
+        redis.call('RENAME', KEYS[5], KEYS[6])
+    end
+    redis.call('SET', KEYS[4], ARGV[3])
+end
+
+local batchID = redis.call('GET', KEYS[4])
+if not batchID then
+    batchID = ARGV[3]
+    redis.call('SET', KEYS[4], batchID)
+end
+
+return {batchID, redis.call('HGETALL', KEYS[2]), redis.call('HGETALL', KEYS[6])}
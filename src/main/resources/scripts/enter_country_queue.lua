@@ -0,0 +1,29 @@
+-- Add a user to his/her country waiting queue and wake up the group formers if a group can be formed
+-- KEYS[1]: The country waiting queue of the user
+-- KEYS[2..n]: Every country waiting queue
+-- ARGV[1]: User ID
+-- ARGV[2]: Time of the entry (in milliseconds)
+-- ARGV[3]: The pub/sub channel of the group formers
+-- ARGV[4]: The pub/sub channel of the in-process matchmaker of the leader, empty if the groups are formed from the queues in Redis
+-- Returns 1 if the user is added to the queue, 0 if the user is already in the queue
+
+if redis.call('ZADD', KEYS[1], 'NX', ARGV[2], ARGV[1]) == 0 then
+    return 0
+end
+
+-- The in-process matchmaker tracks the readiness of the queues itself, the entry is only forwarded to it as "<country>|<user ID>"
+if ARGV[4] ~= '' then
+    redis.call('PUBLISH', ARGV[4], KEYS[1] .. '|' .. ARGV[1])
+    return 1
+end
+
+-- A group needs one user from every country, the formers are not woken up until every queue has one
+for i = 2, #KEYS do
+    if redis.call('ZCARD', KEYS[i]) == 0 then
+        return 1
+    end
+end
+
+redis.call('PUBLISH', ARGV[3], '1')
+
+return 1
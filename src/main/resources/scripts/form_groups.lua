@@ -0,0 +1,36 @@
+-- Pop as many tournament groups as possible from the country waiting queues and record them as a group formation event in a single atomic call
+-- KEYS[1]: The leader lease of the group formation, see acquire_leadership.lua
+-- KEYS[2]: The group formation outbox (stream), see GroupFormationRelay
+-- KEYS[3..n]: The country waiting queues (sorted sets scored by the time of entry)
+-- ARGV[1]: The maximum number of groups that can be formed in one call
+-- ARGV[2]: The lease value of the caller, "<node ID>:<fencing token>"
+-- ARGV[3]: The group ID of the first group, the groups are given consecutive IDs
+-- Returns the number of the formed groups; the event holds the ID of the first group and the popped user IDs group by group, in the order of the queues.
+-- Returns nil if the caller does not hold the lease with the given fencing token, so that a leader whose lease has expired cannot pop any user
+
+if redis.call('GET', KEYS[1]) ~= ARGV[2] then
+    return false
+end
+
+local groupCount = tonumber(ARGV[1])
+for i = 3, #KEYS do
+    groupCount = math.min(groupCount, redis.call('ZCARD', KEYS[i]))
+end
+
+if groupCount == 0 then
+    return 0
+end
+
+local countryCount = #KEYS - 2
+local members = {}
+for i = 3, #KEYS do
+    -- ZPOPMIN replies with a flat list of (member, score) pairs, scores are not needed; the j-th popped user joins the j-th group
+    local popped = redis.call('ZPOPMIN', KEYS[i], groupCount)
+    for j = 1, #popped, 2 do
+        members[((j - 1) / 2) * countryCount + (i - 2)] = popped[j]
+    end
+end
+
+redis.call('XADD', KEYS[2], '*', 'firstGroupID', ARGV[3], 'members', table.concat(members, ','))
+
+return groupCount
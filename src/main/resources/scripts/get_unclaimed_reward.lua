@@ -0,0 +1,16 @@
+-- Read the unclaimed rewards of a user from the unclaimed reward index without touching the persistent storage
+-- KEYS[1]: The unclaimed reward index (userID -> total unclaimed reward)
+-- KEYS[2]: The ready marker of the index, exists once the index holds every unclaimed reward
+-- ARGV[1]: User ID
+-- Returns the total unclaimed reward of the user (0 if none), or -1 if the index is not complete yet
+
+local reward = redis.call('HGET', KEYS[1], ARGV[1])
+if reward then
+    return tonumber(reward)
+end
+
+if redis.call('EXISTS', KEYS[2]) == 1 then
+    return 0
+end
+
+return -1
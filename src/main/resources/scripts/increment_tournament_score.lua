@@ -0,0 +1,23 @@
+-- Increment the score of a user in his/her group leaderboard and the score of his/her country in the country leaderboard atomically
+-- KEYS[1]: The group members hash (userID -> compact member record)
+-- KEYS[2]: The group scores sorted set (userID -> score)
+-- KEYS[3]: The country leaderboard sorted set
+-- ARGV[1]: User ID
+-- ARGV[2]: Country of the user
+-- ARGV[3]: TTL of the group leaderboard (in seconds)
+-- ARGV[4]: Refresh threshold of the TTL (in seconds), the TTL is refreshed only once it falls below
+-- Returns 1 on success, 0 if the group leaderboard is not cached, in which case nothing is incremented
+
+if redis.call('EXISTS', KEYS[1]) == 0 then
+    return 0
+end
+
+redis.call('ZINCRBY', KEYS[2], 1, ARGV[1])
+if redis.call('TTL', KEYS[2]) < tonumber(ARGV[4]) then
+    redis.call('EXPIRE', KEYS[1], ARGV[3])
+    redis.call('EXPIRE', KEYS[2], ARGV[3])
+end
+
+redis.call('ZINCRBY', KEYS[3], 1, ARGV[2])
+
+return 1
@@ -0,0 +1,41 @@
+-- Cache the level and coins of a user read from the persistent storage, unless another request has already done so.
+-- The level ups of the user that are not persisted yet are added, since the progress hash may expire while they are pending
+-- KEYS[1]: The user's progress hash (level, coins)
+-- KEYS[2]: The hash of pending level ups (userID -> number of level ups that are not persisted yet)
+-- KEYS[3]: The hash of level ups that are being flushed
+-- KEYS[4]: The ID of the batch of level ups that are being flushed
+-- KEYS[5]: The number of coin changes of the user, see scripts/begin_coin_changes.lua
+-- ARGV[1]: User ID
+-- ARGV[2]: Level
+-- ARGV[3]: Coins
+-- ARGV[4]: TTL of the progress hash (in seconds)
+-- ARGV[5]: Coins earned per level
+-- ARGV[6]: ID of the batch that was being flushed when the level and coins were read, or an empty string if there was none
+-- ARGV[7]: 1 if that batch was already persisted when the level and coins were read, 0 otherwise
+-- ARGV[8]: The number of coin changes of the user before the level and coins were read
+-- Returns 1 if the progress is cached, 0 if it was already in the cache,
+-- -1 if another batch is being flushed or a coin change has begun since the level and coins were read, in which case they must be read again
+
+if redis.call('EXISTS', KEYS[1]) == 1 then
+    return 0
+end
+
+local batchID = redis.call('GET', KEYS[4]) or ''
+if batchID ~= ARGV[6] then
+    return -1
+end
+-- The coins may or may not include a change that has begun since the read, so they are not cached
+if (redis.call('GET', KEYS[5]) or '0') ~= ARGV[8] then
+    return -1
+end
+
+local levelUps = tonumber(redis.call('HGET', KEYS[2], ARGV[1]) or '0')
+if ARGV[7] == '0' then
+    levelUps = levelUps + tonumber(redis.call('HGET', KEYS[3], ARGV[1]) or '0')
+end
+
+-- The progress records the coin changes it was read after, see scripts/adjust_user_coins.lua
+redis.call('HSET', KEYS[1], 'level', tonumber(ARGV[2]) + levelUps, 'coins', tonumber(ARGV[3]) + levelUps * tonumber(ARGV[5]), 'coinChanges', ARGV[8])
+redis.call('EXPIRE', KEYS[1], ARGV[4])
+
+return 1
@@ -0,0 +1,15 @@
+-- Check if a user is a participant of the active tournament without touching the persistent storage
+-- KEYS[1]: The participant set of the tournament (userIDs)
+-- KEYS[2]: The ready marker of the participant set, exists once the set holds every participant of the tournament
+-- ARGV[1]: User ID
+-- Returns 1 if the user is a participant, 0 if the user is definitely not a participant, -1 if the participant set is not complete yet
+
+if redis.call('SISMEMBER', KEYS[1], ARGV[1]) == 1 then
+    return 1
+end
+
+if redis.call('EXISTS', KEYS[2]) == 1 then
+    return 0
+end
+
+return -1
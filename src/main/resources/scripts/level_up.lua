@@ -0,0 +1,28 @@
+-- Increment the cached level and coins of a user and record the level up for the write-behind flush
+-- KEYS[1]: The user's progress hash (level, coins)
+-- KEYS[2]: The hash of pending level ups (userID -> number of level ups that are not persisted yet)
+-- KEYS[3]: The hash of pending score ups ('groupID:userID' -> tournament score that is not persisted yet)
+-- ARGV[1]: User ID
+-- ARGV[2]: Coins earned per level
+-- ARGV[3]: TTL of the progress hash (in seconds)
+-- ARGV[4]: Refresh threshold of the TTL (in seconds), the TTL is refreshed only once it falls below
+-- ARGV[5]: ID of the user's group in the active tournament, or an empty string if the level up does not score
+-- Returns {level, coins, number of users with pending level ups}, or nil if the user's progress is not cached
+
+if redis.call('EXISTS', KEYS[1]) == 0 then
+    return false
+end
+
+local level = redis.call('HINCRBY', KEYS[1], 'level', 1)
+local coins = redis.call('HINCRBY', KEYS[1], 'coins', ARGV[2])
+if redis.call('TTL', KEYS[1]) < tonumber(ARGV[4]) then
+    redis.call('EXPIRE', KEYS[1], ARGV[3])
+end
+
+redis.call('HINCRBY', KEYS[2], ARGV[1], 1)
+-- The score is recorded with the level up, so whether it counts is decided when the level up happens rather than when it is flushed
+if ARGV[5] ~= '' then
+    redis.call('HINCRBY', KEYS[3], ARGV[5] .. ':' .. ARGV[1], 1)
+end
+
+return {level, coins, redis.call('HLEN', KEYS[2])}
@@ -0,0 +1,11 @@
+-- Find the rank of a user in his/her group, users with the same score share the same rank
+-- KEYS[1]: The group scores sorted set (userID -> score)
+-- ARGV[1]: User ID
+-- Returns 1 + the number of users with a higher score, or nil if the user is not in the cached group
+
+local score = redis.call('ZSCORE', KEYS[1], ARGV[1])
+if not score then
+    return false
+end
+
+return redis.call('ZCOUNT', KEYS[1], '(' .. score, '+inf') + 1
@@ -0,0 +1,26 @@
+-- Read a group leaderboard ordered by score and refresh its TTL once it falls below the refresh threshold
+-- KEYS[1]: The group members hash (userID -> compact member record)
+-- KEYS[2]: The group scores sorted set (userID -> score)
+-- ARGV[1]: TTL of the group leaderboard (in seconds)
+-- ARGV[2]: Refresh threshold of the TTL (in seconds)
+-- Returns a flat list of (userID, member record, score) triples in descending order of score, or nil if the group is not cached;
+-- the member record is an empty string if the user has a score but no member record, so that the following triples stay aligned
+
+if redis.call('EXISTS', KEYS[1]) == 0 then
+    return false
+end
+
+local scores = redis.call('ZREVRANGE', KEYS[2], 0, -1, 'WITHSCORES')
+local leaderboard = {}
+for i = 1, #scores, 2 do
+    leaderboard[#leaderboard + 1] = scores[i]
+    leaderboard[#leaderboard + 1] = redis.call('HGET', KEYS[1], scores[i]) or ''
+    leaderboard[#leaderboard + 1] = scores[i + 1]
+end
+
+if redis.call('TTL', KEYS[2]) < tonumber(ARGV[2]) then
+    redis.call('EXPIRE', KEYS[1], ARGV[1])
+    redis.call('EXPIRE', KEYS[2], ARGV[1])
+end
+
+return leaderboard
@@ -0,0 +1,10 @@
+-- Release a lease if it is still held by the caller
+-- KEYS[1]: The lease
+-- ARGV[1]: ID of the holder
+-- Returns 1 if the lease is released, 0 if it has expired or is held by another holder
+
+if redis.call('GET', KEYS[1]) == ARGV[1] then
+    return redis.call('DEL', KEYS[1])
+end
+
+return 0
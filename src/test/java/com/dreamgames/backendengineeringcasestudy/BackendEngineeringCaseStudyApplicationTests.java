@@ -2,9 +2,11 @@ package com.dreamgames.backendengineeringcasestudy;
 
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
 
 @SpringBootTest
-class BackendEngineeringCaseStudyApplicationTests {
+@DirtiesContext
+class BackendEngineeringCaseStudyApplicationTests extends IntegrationTest {
 
     @Test
     void contextLoads() {
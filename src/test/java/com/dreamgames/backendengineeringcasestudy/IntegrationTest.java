@@ -0,0 +1,175 @@
+package com.dreamgames.backendengineeringcasestudy;
+
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.DockerClientFactory;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.utility.DockerImageName;
+import org.testcontainers.utility.MountableFile;
+
+import com.dreamgames.backendengineeringcasestudy.repository.TournamentGroupRepositoryCustomImpl;
+import com.dreamgames.backendengineeringcasestudy.util.DateUtil;
+import com.dreamgames.backendengineeringcasestudy.util.UUIDUtil;
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Base class of the tests that run against MySQL and Redis. The servers are the images of docker-compose.yml started by Testcontainers
+ * once for the whole test run, with the database loaded from mysql-db-dump.sql. Already running servers can be used instead by setting
+ * the system properties test.mysql.url, test.mysql.username, test.mysql.password, test.redis.host and test.redis.port,
+ * e.g. 'mvn test -Dtest.mysql.url=jdbc:mysql://localhost:3305/mysql-db ...'; the database must be loaded from mysql-db-dump.sql.
+ * The tests are skipped if there is neither Docker nor a server given by the system properties.
+ * The benchmark harnesses of the 'benchmark' package use the same servers, see startServers
+ */
+public abstract class IntegrationTest {
+
+    private static final String MYSQL_IMAGE = "mysql:8.0.28-oracle";
+    private static final String REDIS_IMAGE = "redis:7.2.5";
+
+    // The tests that use Redis directly run on a database of their own, so that a running application context does not see their keys
+    private static final int TEST_REDIS_DATABASE = 1;
+
+    private static MySQLContainer<?> mysql;
+    private static GenericContainer<?> redis;
+    private static Boolean available;
+
+    public static String mysqlUrl;
+    public static String mysqlUsername;
+    public static String mysqlPassword;
+    public static String redisHost;
+    public static int redisPort;
+
+    @BeforeAll
+    static void requireServers() {
+        assumeTrue(startServers(), "Neither Docker nor the test.mysql.url and test.redis.host system properties are available");
+    }
+
+    @DynamicPropertySource
+    static void serverProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", () -> mysqlUrl);
+        registry.add("spring.datasource.username", () -> mysqlUsername);
+        registry.add("spring.datasource.password", () -> mysqlPassword);
+        registry.add("spring.data.redis.host", () -> redisHost);
+        registry.add("spring.data.redis.port", () -> redisPort);
+    }
+
+    /**
+     * Start the servers, or take the ones given by the system properties, once for the whole JVM
+     * @return false if there is neither Docker nor a server given by the system properties
+     */
+    public static synchronized boolean startServers() {
+        if (available != null) {
+            return available;
+        }
+
+        if (!property("test.mysql.url", "").isEmpty() && !property("test.redis.host", "").isEmpty()) {
+            mysqlUrl = property("test.mysql.url", "");
+            mysqlUsername = property("test.mysql.username", "root");
+            mysqlPassword = property("test.mysql.password", "");
+            redisHost = property("test.redis.host", "");
+            redisPort = Integer.parseInt(property("test.redis.port", "6379"));
+            available = true;
+            return true;
+        }
+
+        if (!DockerClientFactory.instance().isDockerAvailable()) {
+            available = false;
+            return false;
+        }
+
+        mysql = new MySQLContainer<>(DockerImageName.parse(MYSQL_IMAGE).asCompatibleSubstituteFor("mysql"))
+                    .withDatabaseName("mysql-db")
+                    // Lets the test user create the triggers of the benchmarks while the binary log is enabled
+                    .withCommand("--log-bin-trust-function-creators=1")
+                    .withCopyFileToContainer(MountableFile.forHostPath("mysql-db-dump.sql"), "/docker-entrypoint-initdb.d/mysql-db-dump.sql");
+        redis = new GenericContainer<>(DockerImageName.parse(REDIS_IMAGE)).withExposedPorts(6379);
+        mysql.start();
+        redis.start();
+
+        mysqlUrl = mysql.getJdbcUrl();
+        mysqlUsername = mysql.getUsername();
+        mysqlPassword = mysql.getPassword();
+        redisHost = redis.getHost();
+        redisPort = redis.getMappedPort(6379);
+        available = true;
+        return true;
+    }
+
+    /** An unset or empty system property (e.g. passed empty by the 'benchmark' profile) takes the default value */
+    private static String property(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+
+    /** A JdbcTemplate on the test database, every statement runs on a connection of its own */
+    public static JdbcTemplate jdbcTemplate() {
+        return new JdbcTemplate(new DriverManagerDataSource(mysqlUrl, mysqlUsername, mysqlPassword));
+    }
+
+    /** A connection pool on the test database, for the concurrent clients of the benchmarks */
+    public static HikariDataSource pooledDataSource(int poolSize) {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(mysqlUrl);
+        dataSource.setUsername(mysqlUsername);
+        dataSource.setPassword(mysqlPassword);
+        dataSource.setMaximumPoolSize(poolSize);
+        return dataSource;
+    }
+
+    /** A StringRedisTemplate on the Redis database of the tests, which is emptied by every call */
+    public static StringRedisTemplate emptyStringRedisTemplate() {
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(redisHost, redisPort);
+        configuration.setDatabase(TEST_REDIS_DATABASE);
+        LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(configuration);
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+
+        StringRedisTemplate template = new StringRedisTemplate(connectionFactory);
+        template.execute((RedisCallback<Void>) connection -> {
+            connection.serverCommands().flushDb();
+            return null;
+        });
+        return template;
+    }
+
+    /** Skips the test between 20.00 and 00.00 UTC, when the triggers reject the inserts of groups and tournament participants */
+    public static void assumeTournamentInsertsAllowed() {
+        assumeTrue(DateUtil.getCurrentTimeUTC().getHour() < 20, "Groups cannot be inserted between 20.00 and 00.00 UTC");
+    }
+
+    /**
+     * Insert a group of the tournament on the given date, with an ID allocated from group_id_sequence
+     * @return ID of the new group
+     */
+    public static long insertGroup(JdbcTemplate jdbcTemplate, LocalDate tournamentDate) {
+        long groupID = new TournamentGroupRepositoryCustomImpl(jdbcTemplate).allocateGroupIDs(1);
+        jdbcTemplate.update("INSERT INTO tournament_group (group_id, date_formed, tournament_date) VALUES (?, ?, ?)",
+                            groupID, Timestamp.valueOf(tournamentDate.atTime(12, 0)), Date.valueOf(tournamentDate));
+        return groupID;
+    }
+
+    /**
+     * Insert a user with a random ID
+     * @return ID of the new user
+     */
+    public static UUID insertUser(JdbcTemplate jdbcTemplate, String country, int level, long coins) {
+        UUID userID = UUID.randomUUID();
+        jdbcTemplate.update("INSERT INTO user (user_id, username, coins, level, country) VALUES (?, ?, ?, ?, ?)",
+                            UUIDUtil.toBytes(userID), "test-" + userID.toString().substring(0, 8), coins, level, country);
+        return userID;
+    }
+}
@@ -0,0 +1,135 @@
+package com.dreamgames.backendengineeringcasestudy.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.dreamgames.backendengineeringcasestudy.IntegrationTest;
+import com.dreamgames.backendengineeringcasestudy.repository.TournamentGroupRepositoryCustomImpl;
+import com.dreamgames.backendengineeringcasestudy.util.UUIDUtil;
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Throughput of concurrent reward claims: the claim_reward procedure, a single round trip, against the former flow of three round trips
+ * (the unclaimed reward check, the UPDATE that marks the rewards as claimed and credits the coins by the update_coins_on_reward_claim trigger,
+ * and the read of the new progress). Every claim claims a reward that is restored outside of the measurement.
+ * Runs against the servers of IntegrationTest between 00.00 and 20.00 UTC, when the groups of the claimed rewards can be inserted:
+ * 'mvn -P benchmark verify -DskipTests -Dbenchmark=ClaimRewardBenchmark'
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(16)
+@Fork(1)
+public class ClaimRewardBenchmark {
+
+    private static final int USERS_PER_THREAD = 100;
+
+    // The trigger that credited the coins of a claim before the claim_reward procedure, see the history of mysql-db-dump.sql
+    private static final String LEGACY_TRIGGER = """
+        CREATE TRIGGER update_coins_on_reward_claim AFTER UPDATE ON user_in_tournament
+        FOR EACH ROW
+        BEGIN
+            IF OLD.is_reward_claimed = false AND NEW.is_reward_claimed = true THEN
+                UPDATE user
+                SET coins = coins + OLD.reward
+                WHERE user_id = NEW.user_id;
+            END IF;
+        END
+        """;
+
+    @State(Scope.Benchmark)
+    public static class Database {
+        HikariDataSource dataSource;
+        JdbcTemplate jdbcTemplate;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            if (!IntegrationTest.startServers()) {
+                throw new IllegalStateException("Neither Docker nor the test.mysql.url and test.redis.host system properties are available");
+            }
+            dataSource = IntegrationTest.pooledDataSource(32);
+            jdbcTemplate = new JdbcTemplate(dataSource);
+            jdbcTemplate.execute("DROP TRIGGER IF EXISTS update_coins_on_reward_claim");
+        }
+
+        /** Also removes the former trigger, the teardown of LegacyTrigger could run after the pool is closed */
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            jdbcTemplate.execute("DROP TRIGGER IF EXISTS update_coins_on_reward_claim");
+            dataSource.close();
+        }
+    }
+
+    /** Installs the former trigger for the benchmark of the former flow only, the procedure would credit the coins twice with it */
+    @State(Scope.Benchmark)
+    public static class LegacyTrigger {
+
+        @Setup(Level.Trial)
+        public void setUp(Database database) {
+            database.jdbcTemplate.execute(LEGACY_TRIGGER);
+        }
+    }
+
+    /** The users of a client thread, each one with an unclaimed reward in a group of its own */
+    @State(Scope.Thread)
+    public static class Claimants {
+        final List<byte[]> userIDs = new ArrayList<>();
+        int next;
+        byte[] userID;
+
+        @Setup(Level.Trial)
+        public void setUp(Database database) {
+            JdbcTemplate jdbcTemplate = database.jdbcTemplate;
+            long firstGroupID = new TournamentGroupRepositoryCustomImpl(jdbcTemplate).allocateGroupIDs(USERS_PER_THREAD);
+            for (int i = 0; i < USERS_PER_THREAD; i++) {
+                UUID userID = IntegrationTest.insertUser(jdbcTemplate, "Turkey", 1, 5000);
+                long groupID = firstGroupID + i;
+                jdbcTemplate.update("INSERT INTO tournament_group (group_id) VALUES (?)", groupID);
+                jdbcTemplate.update("INSERT INTO user_in_tournament (group_id, user_id, score, reward, is_reward_claimed) VALUES (?, ?, 0, 100, false)",
+                                    groupID, UUIDUtil.toBytes(userID));
+                userIDs.add(UUIDUtil.toBytes(userID));
+            }
+        }
+
+        /** Restore the reward of the next claimant, outside of the measurement */
+        @Setup(Level.Invocation)
+        public void nextClaimant(Database database) {
+            userID = userIDs.get(next++ % userIDs.size());
+            database.jdbcTemplate.update("UPDATE user_in_tournament SET is_reward_claimed = false WHERE user_id = ?", (Object) userID);
+        }
+    }
+
+    @Benchmark
+    public Object claimWithProcedure(Database database, Claimants claimants) {
+        return database.jdbcTemplate.queryForList("CALL claim_reward(?)", (Object) claimants.userID);
+    }
+
+    @Benchmark
+    public Object claimWithLegacyFlow(Database database, LegacyTrigger legacyTrigger, Claimants claimants) {
+        JdbcTemplate jdbcTemplate = database.jdbcTemplate;
+        Boolean unclaimed = jdbcTemplate.queryForObject(
+            "SELECT EXISTS (SELECT 1 FROM user_in_tournament WHERE user_id = ? AND is_reward_claimed = false)", Boolean.class, (Object) claimants.userID);
+        if (Boolean.TRUE.equals(unclaimed)) {
+            jdbcTemplate.update("UPDATE user_in_tournament SET is_reward_claimed = true WHERE user_id = ?", (Object) claimants.userID);
+        }
+        return jdbcTemplate.queryForMap("SELECT level, coins FROM user WHERE user_id = ?", (Object) claimants.userID);
+    }
+}
@@ -0,0 +1,141 @@
+package com.dreamgames.backendengineeringcasestudy.benchmark;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import com.dreamgames.backendengineeringcasestudy.IntegrationTest;
+import com.dreamgames.backendengineeringcasestudy.config.RedisConfig;
+import com.dreamgames.backendengineeringcasestudy.dto.LeaderboardDTO;
+import com.dreamgames.backendengineeringcasestudy.entity.UserInLeaderboard;
+import com.dreamgames.backendengineeringcasestudy.enums.Country;
+import com.dreamgames.backendengineeringcasestudy.util.ValueMapper;
+
+/**
+ * Group leaderboard reads in the former and the current Redis layouts, for groups of one user from every country:
+ *  - former: a hash keyed by the group ID of JDK-serialized UserInLeaderboard objects, read with HGETALL and sorted in the LeaderboardDTO
+ *  - current: the "<group ID>:Members" hash of "country|username" records and the "<group ID>:Scores" sorted set,
+ *    read in the order of the scores by scripts/read_group_leaderboard.lua
+ * The read latency is sampled (see the p0.99 of each benchmark), and the MEMORY USAGE of a group in both layouts is printed once the groups are written.
+ * Runs against the Redis server of IntegrationTest:
+ * 'mvn -P benchmark verify -DskipTests -Dbenchmark=GroupLeaderboardLayoutBenchmark'
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class GroupLeaderboardLayoutBenchmark {
+
+    private static final int GROUPS = 1000;
+    private static final String TTL = "300";
+    private static final String REFRESH_THRESHOLD = "150";
+
+    private final RedisConfig redisConfig = new RedisConfig();
+    @SuppressWarnings("rawtypes")
+    private final RedisScript<List> readGroupLeaderboardScript = redisConfig.readGroupLeaderboardScript();
+    // MEMORY USAGE replies with an integer, which the untyped commands of the connection cannot read
+    private final RedisScript<Long> memoryUsageScript = RedisScript.of("return redis.call('MEMORY', 'USAGE', KEYS[1], 'SAMPLES', '0')", Long.class);
+
+    private StringRedisTemplate redis;
+    // The RedisTemplate of the former layout, with the serializers of the former RedisConfig
+    private RedisTemplate<String, Object> formerTemplate;
+
+    private int nextGroupID;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if (!IntegrationTest.startServers()) {
+            throw new IllegalStateException("Neither Docker nor the test.mysql.url and test.redis.host system properties are available");
+        }
+        redis = IntegrationTest.emptyStringRedisTemplate();
+
+        formerTemplate = new RedisTemplate<>();
+        formerTemplate.setConnectionFactory(redis.getConnectionFactory());
+        formerTemplate.setKeySerializer(new StringRedisSerializer());
+        formerTemplate.setHashKeySerializer(new StringRedisSerializer());
+        formerTemplate.setHashValueSerializer(new JdkSerializationRedisSerializer());
+        formerTemplate.afterPropertiesSet();
+
+        for (int groupID = 0; groupID < GROUPS; groupID++) {
+            Map<String, Object> formerMembers = new HashMap<>();
+            Map<String, String> records = new HashMap<>();
+            int score = 0;
+            for (Country country : Country.values()) {
+                String userID = UUID.randomUUID().toString();
+                UserInLeaderboard member = new UserInLeaderboard(0, userID, "user-" + userID.substring(0, 8), country.toString(), score += 7);
+
+                formerMembers.put(userID, member);
+                records.put(userID, ValueMapper.userInLeaderboardToRecord(member));
+                redis.opsForZSet().add(groupID + ":Scores", userID, member.getScore());
+            }
+            formerTemplate.opsForHash().putAll(String.valueOf(groupID), formerMembers);
+            redis.opsForHash().putAll(groupID + ":Members", records);
+            redis.expire(groupID + ":Members", Long.parseLong(TTL), TimeUnit.SECONDS);
+            redis.expire(groupID + ":Scores", Long.parseLong(TTL), TimeUnit.SECONDS);
+        }
+
+        long formerBytes = 0;
+        long currentBytes = 0;
+        for (int groupID = 0; groupID < GROUPS; groupID++) {
+            formerBytes += memoryUsage(String.valueOf(groupID));
+            currentBytes += memoryUsage(groupID + ":Members") + memoryUsage(groupID + ":Scores");
+        }
+        System.out.printf("%nMEMORY USAGE per group of %d members: former layout %d bytes, current layout %d bytes%n",
+                          Country.values().length, formerBytes / GROUPS, currentBytes / GROUPS);
+    }
+
+    /** The bytes of the key and its value, every element of the value is counted */
+    private long memoryUsage(String key) {
+        return redis.execute(memoryUsageScript, List.of(key));
+    }
+
+    private String nextGroupID() {
+        nextGroupID = (nextGroupID + 1) % GROUPS;
+        return String.valueOf(nextGroupID);
+    }
+
+    @Benchmark
+    public LeaderboardDTO formerHashOfSerializedMembers() {
+        // As the former RedisService.getGroupLeaderboard: HGETALL, an EXPIRE, and the sort of the DTO
+        String groupID = nextGroupID();
+        Map<Object, Object> members = formerTemplate.opsForHash().entries(groupID);
+        formerTemplate.expire(groupID, Long.parseLong(TTL), TimeUnit.SECONDS);
+
+        LeaderboardDTO leaderboardDTO = new LeaderboardDTO("group");
+        for (Object memberObj : members.values()) {
+            UserInLeaderboard member = (UserInLeaderboard) memberObj;
+            leaderboardDTO.addElementToLeaderboard(member.getUser_id(), member.getUsername(), member.getCountry(), member.getScore());
+        }
+        leaderboardDTO.sortLeaderboard();
+        return leaderboardDTO;
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public LeaderboardDTO currentMembersAndScores() {
+        String groupID = nextGroupID();
+        List<Object> leaderboard = redis.execute(readGroupLeaderboardScript, List.of(groupID + ":Members", groupID + ":Scores"), TTL, REFRESH_THRESHOLD);
+        return ValueMapper.groupLeaderboardToDTO(leaderboard);
+    }
+}
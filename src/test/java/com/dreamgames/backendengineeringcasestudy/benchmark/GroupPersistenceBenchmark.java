@@ -0,0 +1,146 @@
+package com.dreamgames.backendengineeringcasestudy.benchmark;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.dreamgames.backendengineeringcasestudy.IntegrationTest;
+import com.dreamgames.backendengineeringcasestudy.enums.Country;
+import com.dreamgames.backendengineeringcasestudy.repository.TournamentGroupRepositoryCustomImpl;
+import com.dreamgames.backendengineeringcasestudy.util.DateUtil;
+import com.dreamgames.backendengineeringcasestudy.util.UUIDUtil;
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Groups persisted per second by a group formation relay, storing a group formation event of 100 groups in one transaction:
+ * the group IDs allocated from group_id_sequence and the groups, members and entrance fees written in JDBC batches
+ * and the event recorded as applied (TournamentGroupRepositoryCustomImpl.insertGroups, with rewriteBatchedStatements as in application.properties), against the former flow
+ * of an IDENTITY insert per group, a SELECT and an INSERT per member (the merge of saveAll) and a single entrance fee update.
+ * The members of every batch are new users inserted outside of the measurement.
+ * Runs against the MySQL server of IntegrationTest between 00.00 and 20.00 UTC, when the groups can be inserted:
+ * 'mvn -P benchmark verify -DskipTests -Dbenchmark=GroupPersistenceBenchmark'
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class GroupPersistenceBenchmark {
+
+    private static final int GROUPS_PER_EVENT = 100;
+    private static final int ENTRANCE_FEE = 1000;
+
+    private HikariDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+    private TournamentGroupRepositoryCustomImpl tournamentGroupRepository;
+
+    // The members of the groups of the next event, one user from every country in each
+    private final List<List<UUID>> groups = new ArrayList<>();
+    private long nextEventSequence;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if (!IntegrationTest.startServers()) {
+            throw new IllegalStateException("Neither Docker nor the test.mysql.url and test.redis.host system properties are available");
+        }
+        if (DateUtil.getCurrentTimeUTC().getHour() >= 20) {
+            throw new IllegalStateException("Groups cannot be inserted between 20.00 and 00.00 UTC");
+        }
+        dataSource = IntegrationTest.pooledDataSource(1);
+        dataSource.addDataSourceProperty("rewriteBatchedStatements", "true");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        tournamentGroupRepository = new TournamentGroupRepositoryCustomImpl(jdbcTemplate);
+    }
+
+    /** The IDENTITY inserts of the former flow move the AUTO_INCREMENT counter past the sequence, so the sequence is moved above them */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        jdbcTemplate.update("UPDATE group_id_sequence SET next_id = GREATEST(next_id, (SELECT COALESCE(MAX(group_id), 0) + 1 FROM tournament_group)) WHERE id = 1");
+        dataSource.close();
+    }
+
+    /** Insert the members of the next event, outside of the measurement */
+    @Setup(Level.Invocation)
+    public void insertMembers() {
+        groups.clear();
+        List<Object[]> userArgs = new ArrayList<>();
+        for (int g = 0; g < GROUPS_PER_EVENT; g++) {
+            List<UUID> userIDs = new ArrayList<>();
+            for (Country country : Country.values()) {
+                UUID userID = UUID.randomUUID();
+                userIDs.add(userID);
+                userArgs.add(new Object[] { UUIDUtil.toBytes(userID), "bench-" + userID.toString().substring(0, 8), 5000, 20, country.toString() });
+            }
+            groups.add(userIDs);
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO user (user_id, username, coins, level, country) VALUES (?, ?, ?, ?, ?)", userArgs);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GROUPS_PER_EVENT)
+    public void batchedInserts() {
+        // A node allocates blocks of scheduler.groupIDBlockSize IDs, an allocation per event is the worst case
+        long firstGroupID = tournamentGroupRepository.allocateGroupIDs(GROUPS_PER_EVENT);
+        Map<Long, List<UUID>> groupMembers = new LinkedHashMap<>();
+        for (int g = 0; g < GROUPS_PER_EVENT; g++) {
+            groupMembers.put(firstGroupID + g, groups.get(g));
+        }
+        // A new ID of the Group Formations stream, "<milliseconds>-<sequence number>"
+        String eventID = System.currentTimeMillis() + "-" + nextEventSequence++;
+        transactionTemplate.executeWithoutResult(status -> tournamentGroupRepository.insertGroups(Map.of(eventID, groupMembers), ENTRANCE_FEE));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GROUPS_PER_EVENT)
+    public void formerRowByRowInserts() {
+        transactionTemplate.executeWithoutResult(status -> {
+            List<Object> memberIDs = new ArrayList<>();
+            for (List<UUID> userIDs : groups) {
+                KeyHolder keyHolder = new GeneratedKeyHolder();
+                jdbcTemplate.update(connection -> connection.prepareStatement("INSERT INTO tournament_group () VALUES ()", Statement.RETURN_GENERATED_KEYS),
+                                    keyHolder);
+                long groupID = keyHolder.getKey().longValue();
+
+                for (UUID userID : userIDs) {
+                    byte[] userIDBytes = UUIDUtil.toBytes(userID);
+                    jdbcTemplate.queryForList("SELECT score FROM user_in_tournament WHERE group_id = ? AND user_id = ?", groupID, userIDBytes);
+                    jdbcTemplate.update("INSERT INTO user_in_tournament (group_id, user_id) VALUES (?, ?)", groupID, userIDBytes);
+                    memberIDs.add(userIDBytes);
+                }
+            }
+
+            String placeholders = String.join(",", Collections.nCopies(memberIDs.size(), "?"));
+            List<Object> feeArgs = new ArrayList<>();
+            feeArgs.add(ENTRANCE_FEE);
+            feeArgs.addAll(memberIDs);
+            jdbcTemplate.update("UPDATE user SET coins = coins - ? WHERE user_id IN (" + placeholders + ")", feeArgs.toArray());
+        });
+    }
+}
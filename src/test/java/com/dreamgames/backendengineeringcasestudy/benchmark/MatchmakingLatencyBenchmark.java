@@ -0,0 +1,139 @@
+package com.dreamgames.backendengineeringcasestudy.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import com.dreamgames.backendengineeringcasestudy.IntegrationTest;
+import com.dreamgames.backendengineeringcasestudy.config.RedisConfig;
+import com.dreamgames.backendengineeringcasestudy.enums.Country;
+import com.dreamgames.backendengineeringcasestudy.scheduler.LocalMatchmaker;
+import com.dreamgames.backendengineeringcasestudy.service.LeaderElectionService;
+import com.dreamgames.backendengineeringcasestudy.service.RedisService;
+
+/**
+ * Matchmaking latency, from the queue entries of one user per country to the group recorded in the outbox, in the two matchmaking modes:
+ *  - 'redis': every entry checks the sizes of the Redis queues, the last one wakes up the former over pub/sub, which pops the group with scripts/form_groups.lua
+ *  - 'local': every entry is forwarded to the LocalMatchmaker of the leader over pub/sub, the last one makes it ready in O(1),
+ *    and the former claims the group with scripts/claim_group_members.lua
+ * Both include the pub/sub delivery of the wake-up. Runs against the Redis server of IntegrationTest:
+ * 'mvn -P benchmark verify -DskipTests -Dbenchmark=MatchmakingLatencyBenchmark'
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class MatchmakingLatencyBenchmark {
+
+    // Channels of the benchmark only, the channels are shared by every Redis database
+    private static final String GROUP_FORMATION_CHANNEL = "Benchmark:" + RedisService.GROUP_FORMATION_CHANNEL;
+    private static final String QUEUE_ENTRIES_CHANNEL = "Benchmark:" + RedisService.QUEUE_ENTRIES_CHANNEL;
+    private static final List<String> COUNTRY_QUEUES = Arrays.stream(Country.values()).map(Country::toString).toList();
+    private static final String LEASE_VALUE = "node-1:1";
+
+    private final RedisConfig redisConfig = new RedisConfig();
+    private final RedisScript<Long> enterCountryQueueScript = redisConfig.enterCountryQueueScript();
+    private final RedisScript<Long> formGroupsScript = redisConfig.formGroupsScript();
+    @SuppressWarnings("rawtypes")
+    private final RedisScript<List> claimGroupMembersScript = redisConfig.claimGroupMembersScript();
+
+    // The keys of both formation scripts: the leader lease and the outbox followed by the country waiting queues
+    private final List<String> formationKeys = Stream.concat(Stream.of(LeaderElectionService.LEADER_LEASE, RedisService.GROUP_FORMATIONS),
+                                                             COUNTRY_QUEUES.stream()).toList();
+
+    private StringRedisTemplate redis;
+    private RedisMessageListenerContainer listenerContainer;
+    private final LocalMatchmaker localMatchmaker = LocalMatchmaker.forAllCountries();
+    // The wake-ups of the former, released by the listener thread
+    private final Semaphore formationRequests = new Semaphore(0);
+
+    private long nextUserID;
+    private long nextGroupID = 1;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if (!IntegrationTest.startServers()) {
+            throw new IllegalStateException("Neither Docker nor the test.mysql.url and test.redis.host system properties are available");
+        }
+        redis = IntegrationTest.emptyStringRedisTemplate();
+        redis.opsForValue().set(LeaderElectionService.LEADER_LEASE, LEASE_VALUE);
+
+        listenerContainer = new RedisMessageListenerContainer();
+        listenerContainer.setConnectionFactory(redis.getConnectionFactory());
+        listenerContainer.addMessageListener((message, pattern) -> formationRequests.release(), new ChannelTopic(GROUP_FORMATION_CHANNEL));
+        listenerContainer.addMessageListener((message, pattern) -> {
+            // As GroupFormationScheduler.onMessage
+            String entry = new String(message.getBody(), StandardCharsets.UTF_8);
+            int separator = entry.lastIndexOf('|');
+            if (localMatchmaker.enqueue(entry.substring(0, separator), entry.substring(separator + 1))) {
+                formationRequests.release();
+            }
+        }, new ChannelTopic(QUEUE_ENTRIES_CHANNEL));
+        listenerContainer.afterPropertiesSet();
+        listenerContainer.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        listenerContainer.destroy();
+    }
+
+    /** Drop the recorded groups, outside of the measurement */
+    @TearDown(Level.Iteration)
+    public void emptyOutbox() {
+        redis.delete(RedisService.GROUP_FORMATIONS);
+    }
+
+    private void enterEveryQueue(boolean localMatchmaking) {
+        String time = String.valueOf(System.currentTimeMillis());
+        for (String country : COUNTRY_QUEUES) {
+            List<String> keys = new ArrayList<>();
+            keys.add(country);
+            keys.addAll(COUNTRY_QUEUES);
+            redis.execute(enterCountryQueueScript, keys, "user-" + nextUserID++, time, GROUP_FORMATION_CHANNEL,
+                          localMatchmaking ? QUEUE_ENTRIES_CHANNEL : "");
+        }
+    }
+
+    @Benchmark
+    public Object redisMatchmaking() throws InterruptedException {
+        enterEveryQueue(false);
+        formationRequests.acquire();
+        return redis.execute(formGroupsScript, formationKeys, "100", LEASE_VALUE, String.valueOf(nextGroupID++));
+    }
+
+    @Benchmark
+    public Object localMatchmaking() throws InterruptedException {
+        enterEveryQueue(true);
+        formationRequests.acquire();
+
+        List<String> args = new ArrayList<>(List.of(LEASE_VALUE, String.valueOf(nextGroupID++)));
+        for (String[] group : localMatchmaker.pollGroups(100)) {
+            args.addAll(Arrays.asList(group));
+        }
+        return redis.execute(claimGroupMembersScript, formationKeys, args.toArray());
+    }
+}
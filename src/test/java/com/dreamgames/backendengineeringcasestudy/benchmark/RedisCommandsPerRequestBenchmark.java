@@ -0,0 +1,185 @@
+package com.dreamgames.backendengineeringcasestudy.benchmark;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.springframework.data.redis.connection.DefaultStringTuple;
+import org.springframework.data.redis.connection.RedisZSetCommands.ZAddArgs;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.StringRedisConnection.StringTuple;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import com.dreamgames.backendengineeringcasestudy.IntegrationTest;
+import com.dreamgames.backendengineeringcasestudy.config.RedisConfig;
+
+/**
+ * The Redis commands executed per request, before and after the TTLs were refreshed only when they run low and the new groups were written in pipelines:
+ *  - a level up (scripts/level_up.lua) and a group leaderboard read (scripts/read_group_leaderboard.lua) that refresh the TTL at every call,
+ *    against the ones that refresh it only below ttl.refreshRatio (0.5) of the TTL
+ *  - a user-group lookup with a GET and a SET, against a single GETEX
+ *  - the leaderboard writes of a formed group of 5 members, 4 round trips per member, against a single pipeline
+ * The commands are counted by the server, from the difference of INFO commandstats over each iteration, including the commands run by the scripts;
+ * the commands per request are printed at the end of each iteration. Runs against the Redis server of IntegrationTest:
+ * 'mvn -P benchmark verify -DskipTests -Dbenchmark=RedisCommandsPerRequestBenchmark'
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1, time = 3)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class RedisCommandsPerRequestBenchmark {
+
+    private static final String TTL = "300";
+    private static final String REFRESH_THRESHOLD = "150";
+    // Above any remaining TTL, so that the TTL is refreshed at every call as it was before the refresh threshold
+    private static final String ALWAYS_REFRESH = String.valueOf(Integer.MAX_VALUE);
+    private static final List<String> MEMBERS = List.of("user-1", "user-2", "user-3", "user-4", "user-5");
+
+    // The commands that read the statistics, and the set-up of the dedicated connections of the pipelines on the test database
+    private static final Set<String> UNCOUNTED_COMMANDS = Set.of("cmdstat_info", "cmdstat_select", "cmdstat_hello", "cmdstat_client|setinfo");
+
+    private final RedisConfig redisConfig = new RedisConfig();
+    @SuppressWarnings("rawtypes")
+    private final RedisScript<List> levelUpScript = redisConfig.levelUpScript();
+    @SuppressWarnings("rawtypes")
+    private final RedisScript<List> readGroupLeaderboardScript = redisConfig.readGroupLeaderboardScript();
+
+    private StringRedisTemplate redis;
+
+    private long requests;
+    private long commandsAtStart;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if (!IntegrationTest.startServers()) {
+            throw new IllegalStateException("Neither Docker nor the test.mysql.url and test.redis.host system properties are available");
+        }
+        redis = IntegrationTest.emptyStringRedisTemplate();
+
+        redis.opsForHash().putAll("User Progress:user-1", Map.of("level", "1", "coins", "0"));
+        redis.expire("User Progress:user-1", Duration.ofSeconds(Long.parseLong(TTL)));
+        for (String member : MEMBERS) {
+            redis.opsForHash().put("1:Members", member, "Turkey|" + member);
+            redis.opsForZSet().add("1:Scores", member, 1);
+        }
+        redis.expire("1:Members", Duration.ofSeconds(Long.parseLong(TTL)));
+        redis.expire("1:Scores", Duration.ofSeconds(Long.parseLong(TTL)));
+        redis.opsForValue().set("user-1", "1", Duration.ofSeconds(Long.parseLong(TTL)));
+    }
+
+    @Setup(Level.Iteration)
+    public void startCounting() {
+        requests = 0;
+        commandsAtStart = executedCommands();
+    }
+
+    @TearDown(Level.Iteration)
+    public void reportCommandsPerRequest(BenchmarkParams params) {
+        long commands = executedCommands() - commandsAtStart;
+        System.out.printf("%n%s: %.2f Redis commands per request%n", params.getBenchmark(), (double) commands / requests);
+    }
+
+    /** Number of the commands executed by the server since its start, except the uncounted commands */
+    private long executedCommands() {
+        Properties commandStats = redis.execute((RedisCallback<Properties>) connection -> connection.serverCommands().info("commandstats"));
+        long calls = 0;
+        for (String command : commandStats.stringPropertyNames()) {
+            if (command.startsWith("cmdstat_") && !UNCOUNTED_COMMANDS.contains(command)) {
+                String stats = commandStats.getProperty(command);
+                calls += Long.parseLong(stats.substring(stats.indexOf("calls=") + 6, stats.indexOf(',')));
+            }
+        }
+        return calls;
+    }
+
+    @Benchmark
+    public Object levelUpRefreshingEveryTime() {
+        requests++;
+        return redis.execute(levelUpScript, List.of("User Progress:user-1", "Level Ups", "Score Ups"), "user-1", "25", TTL, ALWAYS_REFRESH, "");
+    }
+
+    @Benchmark
+    public Object levelUpRefreshingWhenLow() {
+        requests++;
+        return redis.execute(levelUpScript, List.of("User Progress:user-1", "Level Ups", "Score Ups"), "user-1", "25", TTL, REFRESH_THRESHOLD, "");
+    }
+
+    @Benchmark
+    public Object groupLeaderboardRefreshingEveryTime() {
+        requests++;
+        return redis.execute(readGroupLeaderboardScript, List.of("1:Members", "1:Scores"), TTL, ALWAYS_REFRESH);
+    }
+
+    @Benchmark
+    public Object groupLeaderboardRefreshingWhenLow() {
+        requests++;
+        return redis.execute(readGroupLeaderboardScript, List.of("1:Members", "1:Scores"), TTL, REFRESH_THRESHOLD);
+    }
+
+    @Benchmark
+    public Object userGroupWithGetAndSet() {
+        requests++;
+        String groupID = redis.opsForValue().get("user-1");
+        redis.opsForValue().set("user-1", groupID, Duration.ofSeconds(Long.parseLong(TTL)));
+        return groupID;
+    }
+
+    @Benchmark
+    public Object userGroupWithGetEx() {
+        requests++;
+        return redis.opsForValue().getAndExpire("user-1", Duration.ofSeconds(Long.parseLong(TTL)));
+    }
+
+    @Benchmark
+    public void formedGroupWrittenPerMember() {
+        requests++;
+        for (String member : MEMBERS) {
+            redis.opsForHash().put("2:Members", member, "Turkey|" + member);
+            redis.opsForZSet().add("2:Scores", member, 0);
+            redis.expire("2:Members", Duration.ofSeconds(Long.parseLong(TTL)));
+            redis.expire("2:Scores", Duration.ofSeconds(Long.parseLong(TTL)));
+        }
+    }
+
+    @Benchmark
+    public Object formedGroupWrittenInPipeline() {
+        requests++;
+        // The writes of RedisService.insertGroupLeaderboards for a single group
+        return redis.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            Map<String, String> records = new HashMap<>();
+            Set<StringTuple> scores = new HashSet<>();
+            for (String member : MEMBERS) {
+                records.put(member, "Turkey|" + member);
+                scores.add(new DefaultStringTuple(member, 0));
+            }
+            stringConnection.hMSet("3:Members", records);
+            stringConnection.zAdd("3:Scores", scores, ZAddArgs.ifNotExists());
+            stringConnection.expire("3:Members", Long.parseLong(TTL));
+            stringConnection.expire("3:Scores", Long.parseLong(TTL));
+            return null;
+        });
+    }
+}
@@ -0,0 +1,126 @@
+package com.dreamgames.backendengineeringcasestudy.benchmark;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.dreamgames.backendengineeringcasestudy.IntegrationTest;
+
+/**
+ * Redis operations per second of a node whose threads issue their Redis commands inside @Transactional methods (e.g. the JPA writes of the group formation),
+ * with the former redisTemplate that enabled transaction support, which binds a dedicated connection to the thread and wraps the commands in MULTI/EXEC,
+ * against the current one that multiplexes every command over the shared native connection.
+ * Each operation is a single INCR, 5 of them per transaction. Runs against the Redis server of IntegrationTest:
+ * 'mvn -P benchmark verify -DskipTests -Dbenchmark=RedisTransactionSupportBenchmark'
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Threads(16)
+@Fork(1)
+public class RedisTransactionSupportBenchmark {
+
+    private static final int COMMANDS_PER_TRANSACTION = 5;
+
+    /** Opens a transaction without a resource, so that only the transaction synchronization of the Redis template takes effect */
+    private static class ResourcelessTransactionManager extends AbstractPlatformTransactionManager {
+        @Override
+        protected Object doGetTransaction() {
+            return new Object();
+        }
+
+        @Override
+        protected void doBegin(Object transaction, TransactionDefinition definition) {
+        }
+
+        @Override
+        protected void doCommit(DefaultTransactionStatus status) {
+        }
+
+        @Override
+        protected void doRollback(DefaultTransactionStatus status) {
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Templates {
+        LettuceConnectionFactory connectionFactory;
+        StringRedisTemplate transactionalTemplate;
+        StringRedisTemplate sharedConnectionTemplate;
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new ResourcelessTransactionManager());
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            if (!IntegrationTest.startServers()) {
+                throw new IllegalStateException("Neither Docker nor the test.mysql.url and test.redis.host system properties are available");
+            }
+            // Empty the test database
+            IntegrationTest.emptyStringRedisTemplate();
+
+            // The connection factory of RedisConfig, on the test database
+            RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(IntegrationTest.redisHost, IntegrationTest.redisPort);
+            configuration.setDatabase(1);
+            connectionFactory = new LettuceConnectionFactory(configuration);
+            connectionFactory.setShareNativeConnection(true);
+            connectionFactory.afterPropertiesSet();
+            connectionFactory.start();
+
+            transactionalTemplate = new StringRedisTemplate(connectionFactory);
+            transactionalTemplate.setEnableTransactionSupport(true);
+            sharedConnectionTemplate = new StringRedisTemplate(connectionFactory);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            connectionFactory.destroy();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        final String key = "counter:" + UUID.randomUUID();
+    }
+
+    private static Object incrementInTransaction(Templates templates, StringRedisTemplate redisTemplate, String key) {
+        return templates.transactionTemplate.execute(status -> {
+            for (int i = 0; i < COMMANDS_PER_TRANSACTION; i++) {
+                redisTemplate.opsForValue().increment(key);
+            }
+            return null;
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COMMANDS_PER_TRANSACTION)
+    public Object withTransactionSupport(Templates templates, Client client) {
+        return incrementInTransaction(templates, templates.transactionalTemplate, client.key);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COMMANDS_PER_TRANSACTION)
+    public Object withSharedConnection(Templates templates, Client client) {
+        return incrementInTransaction(templates, templates.sharedConnectionTemplate, client.key);
+    }
+}
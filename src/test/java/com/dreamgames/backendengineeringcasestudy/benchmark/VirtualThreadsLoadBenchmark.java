@@ -0,0 +1,249 @@
+package com.dreamgames.backendengineeringcasestudy.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.dreamgames.backendengineeringcasestudy.BackendEngineeringCaseStudyApplication;
+import com.dreamgames.backendengineeringcasestudy.IntegrationTest;
+import com.dreamgames.backendengineeringcasestudy.enums.Country;
+import com.dreamgames.backendengineeringcasestudy.service.SecurityService;
+import com.dreamgames.backendengineeringcasestudy.util.DateUtil;
+import com.dreamgames.backendengineeringcasestudy.util.UUIDUtil;
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Latency of the tournament entries and the level ups under load, with the request handlers, the @Async tasks and the schedulers
+ * on platform threads and on virtual threads (spring.threads.virtual.enabled). The application is started in each mode in a JVM of its own,
+ * and more client threads than the 200 request threads of Tomcat send the requests over HTTP:
+ *  - enterTournament: POST /api/v1/tournament/enter of a new user, answered once a group is formed with the users of the other countries;
+ *    the client threads are spread evenly across the countries
+ *  - levelUp: PUT /api/v1/user/{userID} of a user that is not in the tournament
+ * The latency is sampled (see the p0.99 of each benchmark). The platform threads of the application are sampled every 10 ms,
+ * and the mean and maximum numbers of the BLOCKED ones (waiting for a monitor) and of the WAITING ones (parked, e.g. for a pooled connection),
+ * together with the failed requests, are printed at the end of each iteration.
+ * Runs against the servers of IntegrationTest between 00.00 and 20.00 UTC, when the tournament can be entered:
+ * 'mvn -P benchmark verify -DskipTests -Dbenchmark=VirtualThreadsLoadBenchmark'
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Threads(VirtualThreadsLoadBenchmark.CLIENTS)
+@Fork(1)
+public class VirtualThreadsLoadBenchmark {
+
+    static final int CLIENTS = 250;
+    // The new users that every client thread has for the entries of an iteration
+    private static final int ENTRANTS_PER_ITERATION = 200;
+    private static final long SAMPLING_PERIOD = 10;
+
+    /** The application in the mode under test, and the sampling of its platform threads */
+    @State(Scope.Benchmark)
+    public static class Application {
+
+        @Param({"false", "true"})
+        String virtualThreads;
+
+        ConfigurableApplicationContext context;
+        SecurityService securityService;
+        HikariDataSource dataSource;
+        JdbcTemplate jdbcTemplate;
+        HttpClient httpClient;
+        String baseUrl;
+
+        private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        private ScheduledExecutorService sampler;
+        // {BLOCKED threads, WAITING threads} of every sample of the iteration
+        private final List<int[]> samples = new ArrayList<>();
+        private final AtomicLong failedRequests = new AtomicLong();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            if (!IntegrationTest.startServers()) {
+                throw new IllegalStateException("Neither Docker nor the test.mysql.url and test.redis.host system properties are available");
+            }
+            if (DateUtil.getCurrentTimeUTC().getHour() >= 20) {
+                throw new IllegalStateException("The tournament cannot be entered between 20.00 and 00.00 UTC");
+            }
+
+            // Command line arguments, so that they take precedence over application.properties
+            context = new SpringApplicationBuilder(BackendEngineeringCaseStudyApplication.class).run(
+                "--spring.datasource.url=" + IntegrationTest.mysqlUrl,
+                "--spring.datasource.username=" + IntegrationTest.mysqlUsername,
+                "--spring.datasource.password=" + IntegrationTest.mysqlPassword,
+                "--spring.data.redis.host=" + IntegrationTest.redisHost,
+                "--spring.data.redis.port=" + IntegrationTest.redisPort,
+                "--server.port=0",
+                "--spring.threads.virtual.enabled=" + virtualThreads,
+                // The entries that are left unmatched at the end of an iteration do not hold their client threads for long
+                "--scheduler.waitForOtherPlayersTimeout=5000",
+                "--logging.level.root=WARN");
+            securityService = context.getBean(SecurityService.class);
+            baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+
+            dataSource = IntegrationTest.pooledDataSource(16);
+            dataSource.addDataSourceProperty("rewriteBatchedStatements", "true");
+            jdbcTemplate = new JdbcTemplate(dataSource);
+            httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            context.close();
+            dataSource.close();
+        }
+
+        @Setup(Level.Iteration)
+        public void startSampling() {
+            samples.clear();
+            failedRequests.set(0);
+            sampler = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "thread-sampler"));
+            sampler.scheduleAtFixedRate(this::sampleThreads, 0, SAMPLING_PERIOD, TimeUnit.MILLISECONDS);
+        }
+
+        @TearDown(Level.Iteration)
+        public void reportThreads(BenchmarkParams params) throws InterruptedException {
+            sampler.shutdown();
+            sampler.awaitTermination(1, TimeUnit.SECONDS);
+
+            double blocked = samples.stream().mapToInt(sample -> sample[0]).average().orElse(0);
+            double waiting = samples.stream().mapToInt(sample -> sample[1]).average().orElse(0);
+            System.out.printf("%n%s (virtual threads: %s): BLOCKED platform threads mean %.1f max %d, WAITING platform threads mean %.1f max %d, %d failed requests%n",
+                              params.getBenchmark(), virtualThreads, blocked, samples.stream().mapToInt(sample -> sample[0]).max().orElse(0),
+                              waiting, samples.stream().mapToInt(sample -> sample[1]).max().orElse(0), failedRequests.get());
+        }
+
+        /** Count the platform threads of the application, the client threads of the benchmark and the HTTP client are left out */
+        private void sampleThreads() {
+            int blocked = 0;
+            int waiting = 0;
+            for (ThreadInfo thread : threadMXBean.getThreadInfo(threadMXBean.getAllThreadIds())) {
+                if (thread == null || thread.getThreadName().contains("jmh-worker") || thread.getThreadName().startsWith("HttpClient")
+                        || thread.getThreadName().equals("thread-sampler")) {
+                    continue;
+                }
+                switch (thread.getThreadState()) {
+                    case BLOCKED -> blocked++;
+                    case WAITING, TIMED_WAITING -> waiting++;
+                    default -> { }
+                }
+            }
+            samples.add(new int[] { blocked, waiting });
+        }
+
+        /** @return the status code of the response, the requests that fail are counted */
+        int send(HttpRequest request) throws Exception {
+            int status = httpClient.send(request, BodyHandlers.discarding()).statusCode();
+            if (status != 200) {
+                failedRequests.incrementAndGet();
+            }
+            return status;
+        }
+
+        /**
+         * Insert new users with enough coins to enter the tournament
+         * @return {user ID, bearer token} of each user
+         */
+        List<String[]> insertUsers(Country country, int level, int count) {
+            List<Object[]> userArgs = new ArrayList<>();
+            List<String[]> users = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                UUID userID = UUID.randomUUID();
+                String username = "bench-" + userID.toString().substring(0, 8);
+                userArgs.add(new Object[] { UUIDUtil.toBytes(userID), username, 5000, level, country.toString() });
+                users.add(new String[] { userID.toString(), "Bearer " + securityService.encode(userID, username, country.toString()) });
+            }
+            jdbcTemplate.batchUpdate("INSERT INTO user (user_id, username, coins, level, country) VALUES (?, ?, ?, ?, ?)", userArgs);
+            return users;
+        }
+    }
+
+    /** The new users of a client thread that enter the tournament, all from the country of the thread */
+    @State(Scope.Thread)
+    public static class Entrants {
+        private Country country;
+        private final Deque<String[]> users = new ArrayDeque<>();
+
+        @Setup(Level.Trial)
+        public void setUp(ThreadParams threadParams) {
+            country = Country.values()[threadParams.getThreadIndex() % Country.values().length];
+        }
+
+        /** Top up the users of the thread, outside of the measurement */
+        @Setup(Level.Iteration)
+        public void insertEntrants(Application application) {
+            users.addAll(application.insertUsers(country, 20, ENTRANTS_PER_ITERATION - users.size()));
+        }
+
+        String[] next() {
+            String[] user = users.poll();
+            if (user == null) {
+                throw new IllegalStateException("The entrants of the iteration are used up, increase ENTRANTS_PER_ITERATION");
+            }
+            return user;
+        }
+    }
+
+    /** The user of a client thread that levels up */
+    @State(Scope.Thread)
+    public static class Player {
+        String[] user;
+
+        @Setup(Level.Trial)
+        public void setUp(Application application, ThreadParams threadParams) {
+            user = application.insertUsers(Country.values()[threadParams.getThreadIndex() % Country.values().length], 1, 1).get(0);
+        }
+    }
+
+    @Benchmark
+    public int enterTournament(Application application, Entrants entrants) throws Exception {
+        String[] user = entrants.next();
+        return application.send(HttpRequest.newBuilder(URI.create(application.baseUrl + "/api/v1/tournament/enter"))
+                                           .header("Authorization", user[1])
+                                           .POST(BodyPublishers.noBody())
+                                           .build());
+    }
+
+    @Benchmark
+    public int levelUp(Application application, Player player) throws Exception {
+        return application.send(HttpRequest.newBuilder(URI.create(application.baseUrl + "/api/v1/user/" + player.user[0]))
+                                           .header("Authorization", player.user[1])
+                                           .PUT(BodyPublishers.noBody())
+                                           .build());
+    }
+}
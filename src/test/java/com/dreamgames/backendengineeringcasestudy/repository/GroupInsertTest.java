@@ -0,0 +1,119 @@
+package com.dreamgames.backendengineeringcasestudy.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.dreamgames.backendengineeringcasestudy.IntegrationTest;
+import com.dreamgames.backendengineeringcasestudy.util.UUIDUtil;
+
+/** Forming groups on the database loaded from mysql-db-dump.sql, and storing the group formation events once: TournamentGroupRepositoryCustomImpl */
+class GroupInsertTest extends IntegrationTest {
+
+    private static final List<String> COUNTRIES = List.of("Turkey", "the United States", "the United Kingdom", "France", "Germany");
+
+    private JdbcTemplate jdbcTemplate;
+    private TournamentGroupRepositoryCustomImpl tournamentGroupRepository;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = jdbcTemplate();
+        tournamentGroupRepository = new TournamentGroupRepositoryCustomImpl(jdbcTemplate);
+    }
+
+    /** A new ID of the Group Formations stream, the applied events are kept for a day */
+    private static String eventID() {
+        return System.currentTimeMillis() + "-" + System.nanoTime();
+    }
+
+    private List<UUID> insertMembers() {
+        return COUNTRIES.stream().map(country -> insertUser(jdbcTemplate, country, 20, 5000)).toList();
+    }
+
+    private long coins(UUID userID) {
+        return jdbcTemplate.queryForObject("SELECT coins FROM user WHERE user_id = ?", Long.class, (Object) UUIDUtil.toBytes(userID));
+    }
+
+    @Test
+    void allocatedGroupIDsAreAboveTheStoredGroups() {
+        long storedGroupID = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(group_id), 0) FROM tournament_group", Long.class);
+
+        long firstGroupID = tournamentGroupRepository.allocateGroupIDs(10);
+        assertTrue(firstGroupID > storedGroupID, "Group ID %d is allocated while group %d is stored".formatted(firstGroupID, storedGroupID));
+        assertEquals(firstGroupID + 10, tournamentGroupRepository.allocateGroupIDs(1), "The blocks do not overlap");
+    }
+
+    @Test
+    void groupIsFormed() {
+        assumeTournamentInsertsAllowed();
+        List<UUID> userIDs = insertMembers();
+
+        long groupID = tournamentGroupRepository.allocateGroupIDs(1);
+        tournamentGroupRepository.insertGroups(Map.of(eventID(), Map.of(groupID, userIDs)), 1000);
+
+        assertEquals(5, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM user_in_tournament WHERE group_id = ?", Integer.class, groupID));
+        assertEquals(1, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM tournament_group WHERE group_id = ? AND tournament_date = UTC_DATE()",
+                                                    Integer.class, groupID));
+        for (UUID userID : userIDs) {
+            assertEquals(4000, coins(userID));
+        }
+    }
+
+    @Test
+    void eventIsAppliedOnce() {
+        assumeTournamentInsertsAllowed();
+        List<UUID> firstGroup = insertMembers();
+        List<UUID> secondGroup = insertMembers();
+        long firstGroupID = tournamentGroupRepository.allocateGroupIDs(2);
+        String eventID = eventID();
+        Map<Long, List<UUID>> groupMembers = Map.of(firstGroupID, firstGroup, firstGroupID + 1, secondGroup);
+
+        assertEquals(Set.of(eventID), tournamentGroupRepository.insertGroups(Map.of(eventID, groupMembers), 1000));
+        // Delivered again, together with a new event
+        List<UUID> thirdGroup = insertMembers();
+        long thirdGroupID = tournamentGroupRepository.allocateGroupIDs(1);
+        String newEventID = eventID();
+        assertEquals(Set.of(newEventID), 
+                     tournamentGroupRepository.insertGroups(Map.of(eventID, groupMembers, newEventID, Map.of(thirdGroupID, thirdGroup)), 1000));
+
+        assertEquals(15, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM user_in_tournament WHERE group_id IN (?, ?, ?)", Integer.class,
+                                                     firstGroupID, firstGroupID + 1, thirdGroupID));
+        for (List<UUID> userIDs : List.of(firstGroup, secondGroup, thirdGroup)) {
+            for (UUID userID : userIDs) {
+                assertEquals(4000, coins(userID), "The entrance fee is charged once");
+            }
+        }
+    }
+
+    @Test
+    void groupIDOfAnotherEventFailsTheTransaction() {
+        assumeTournamentInsertsAllowed();
+        List<UUID> storedGroup = insertMembers();
+        long groupID = tournamentGroupRepository.allocateGroupIDs(1);
+        tournamentGroupRepository.insertGroups(Map.of(eventID(), Map.of(groupID, storedGroup)), 1000);
+
+        // Another event with the same group ID is not skipped, and none of it is applied
+        List<UUID> collidingGroup = insertMembers();
+        String collidingEventID = eventID();
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(jdbcTemplate.getDataSource()));
+        assertThrows(DuplicateKeyException.class, () -> transactionTemplate.executeWithoutResult(status -> 
+            tournamentGroupRepository.insertGroups(Map.of(collidingEventID, Map.of(groupID, collidingGroup)), 1000)));
+
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM applied_group_formation WHERE event_id = ?", Integer.class, collidingEventID));
+        for (UUID userID : collidingGroup) {
+            assertEquals(5000, coins(userID));
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.dreamgames.backendengineeringcasestudy.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.dreamgames.backendengineeringcasestudy.IntegrationTest;
+import com.dreamgames.backendengineeringcasestudy.util.UUIDUtil;
+
+/** Ranking an ended tournament: UserInTournamentRepositoryCustomImpl.distributeRewardsInTournament */
+class RewardDistributionTest extends IntegrationTest {
+
+    private static final LocalDate TOURNAMENT_DATE = LocalDate.of(2001, 1, 1);
+    private static final Map<Integer, Integer> REWARDS_BY_PLACE = Map.of(1, 10000, 2, 5000);
+
+    private JdbcTemplate jdbcTemplate;
+    private UserInTournamentRepositoryCustomImpl userInTournamentRepository;
+
+    @BeforeEach
+    void setUp() {
+        assumeTournamentInsertsAllowed();
+        jdbcTemplate = jdbcTemplate();
+        userInTournamentRepository = new UserInTournamentRepositoryCustomImpl(jdbcTemplate);
+    }
+
+    private UUID insertParticipant(long groupID, int score) {
+        UUID userID = insertUser(jdbcTemplate, "Turkey", 20, 5000);
+        jdbcTemplate.update("INSERT INTO user_in_tournament (group_id, user_id, score) VALUES (?, ?, ?)", groupID, UUIDUtil.toBytes(userID), score);
+        return userID;
+    }
+
+    private Map<String, Object> result(long groupID, UUID userID) {
+        return jdbcTemplate.queryForMap("SELECT final_rank, reward, is_reward_claimed FROM user_in_tournament WHERE group_id = ? AND user_id = ?",
+                                        groupID, UUIDUtil.toBytes(userID));
+    }
+
+    private void assertResult(long groupID, UUID userID, int rank, int reward) {
+        Map<String, Object> result = result(groupID, userID);
+        assertEquals(rank, ((Number) result.get("final_rank")).intValue());
+        assertEquals(reward, ((Number) result.get("reward")).intValue());
+        assertEquals(reward == 0, (Boolean) result.get("is_reward_claimed"));
+    }
+
+    @Test
+    void tiedUsersShareTheirRankAndPlace() {
+        long groupID = insertGroup(jdbcTemplate, TOURNAMENT_DATE);
+        UUID first = insertParticipant(groupID, 7);
+        UUID tiedFirst = insertParticipant(groupID, 7);
+        UUID second = insertParticipant(groupID, 5);
+        UUID third = insertParticipant(groupID, 1);
+        UUID tiedThird = insertParticipant(groupID, 1);
+
+        List<Object[]> distributed = userInTournamentRepository.distributeRewardsInTournament(TOURNAMENT_DATE, groupID, groupID, REWARDS_BY_PLACE);
+        assertEquals(5, distributed.size());
+
+        // The rank counts the users ahead, the place counts the distinct scores ahead and decides the reward
+        assertResult(groupID, first, 1, 10000);
+        assertResult(groupID, tiedFirst, 1, 10000);
+        assertResult(groupID, second, 3, 5000);
+        assertResult(groupID, third, 4, 0);
+        assertResult(groupID, tiedThird, 4, 0);
+    }
+
+    @Test
+    void groupsAreRankedSeparatelyAndOnlyOnce() {
+        long firstGroupID = insertGroup(jdbcTemplate, TOURNAMENT_DATE);
+        long otherDateGroupID = insertGroup(jdbcTemplate, TOURNAMENT_DATE.plusDays(1));
+        long secondGroupID = insertGroup(jdbcTemplate, TOURNAMENT_DATE);
+        UUID firstGroupWinner = insertParticipant(firstGroupID, 3);
+        UUID firstGroupRunnerUp = insertParticipant(firstGroupID, 2);
+        UUID otherDateUser = insertParticipant(otherDateGroupID, 9);
+        UUID secondGroupWinner = insertParticipant(secondGroupID, 1);
+
+        List<Object[]> distributed = userInTournamentRepository.distributeRewardsInTournament(TOURNAMENT_DATE, firstGroupID, secondGroupID, REWARDS_BY_PLACE);
+        assertEquals(3, distributed.size());
+        assertResult(firstGroupID, firstGroupWinner, 1, 10000);
+        assertResult(firstGroupID, firstGroupRunnerUp, 2, 5000);
+        assertResult(secondGroupID, secondGroupWinner, 1, 10000);
+        assertNull(result(otherDateGroupID, otherDateUser).get("final_rank"), "A group of another tournament is not ranked");
+
+        // A resumed distribution skips the ranked users and keeps their ranks
+        assertTrue(userInTournamentRepository.distributeRewardsInTournament(TOURNAMENT_DATE, firstGroupID, secondGroupID, REWARDS_BY_PLACE).isEmpty());
+        assertResult(firstGroupID, firstGroupRunnerUp, 2, 5000);
+    }
+}
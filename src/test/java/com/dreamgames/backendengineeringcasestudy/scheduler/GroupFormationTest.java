@@ -0,0 +1,98 @@
+package com.dreamgames.backendengineeringcasestudy.scheduler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import com.dreamgames.backendengineeringcasestudy.IntegrationTest;
+import com.dreamgames.backendengineeringcasestudy.config.RedisConfig;
+import com.dreamgames.backendengineeringcasestudy.enums.Country;
+import com.dreamgames.backendengineeringcasestudy.service.LeaderElectionService;
+import com.dreamgames.backendengineeringcasestudy.service.RedisService;
+
+/** Forming the groups from the country waiting queues in Redis: scripts/form_groups.lua */
+class GroupFormationTest extends IntegrationTest {
+
+    private static final List<String> KEYS = Stream.concat(Stream.of(LeaderElectionService.LEADER_LEASE, RedisService.GROUP_FORMATIONS),
+                                                           Arrays.stream(Country.values()).map(Country::toString)).toList();
+    private static final String LEASE_VALUE = "node-1:7";
+
+    private final RedisScript<Long> formGroupsScript = new RedisConfig().formGroupsScript();
+
+    private StringRedisTemplate redis;
+
+    @BeforeEach
+    void setUp() {
+        redis = emptyStringRedisTemplate();
+        redis.opsForValue().set(LeaderElectionService.LEADER_LEASE, LEASE_VALUE);
+    }
+
+    /** Enqueue users-per-country users to every queue, "<country index>-<entry index>" entering at the time of their entry index */
+    private void enqueue(int usersPerCountry) {
+        for (Country country : Country.values()) {
+            for (int i = 0; i < usersPerCountry; i++) {
+                redis.opsForZSet().add(country.toString(), country.ordinal() + "-" + i, i);
+            }
+        }
+    }
+
+    private Long formGroups(int maxGroups, String leaseValue, long firstGroupID) {
+        return redis.execute(formGroupsScript, KEYS, String.valueOf(maxGroups), leaseValue, String.valueOf(firstGroupID));
+    }
+
+    private List<MapRecord<String, Object, Object>> events() {
+        return redis.opsForStream().read(StreamOffset.fromStart(RedisService.GROUP_FORMATIONS));
+    }
+
+    @Test
+    void earliestEntriesAreGroupedInTheOrderOfTheQueues() {
+        enqueue(3);
+        redis.opsForZSet().remove(Country.GERMANY.toString(), "4-2");
+
+        // Limited by the shortest queue
+        assertEquals(2L, formGroups(100, LEASE_VALUE, 11));
+
+        assertEquals(1, events().size());
+        assertEquals(Map.of("firstGroupID", "11", "members", "0-0,1-0,2-0,3-0,4-0,0-1,1-1,2-1,3-1,4-1"), events().get(0).getValue());
+        for (Country country : Country.values()) {
+            assertEquals(country == Country.GERMANY ? 0 : 1, redis.opsForZSet().zCard(country.toString()));
+        }
+    }
+
+    @Test
+    void groupsAreLimitedPerCall() {
+        enqueue(3);
+
+        assertEquals(2L, formGroups(2, LEASE_VALUE, 11));
+        assertEquals(1L, formGroups(2, LEASE_VALUE, 13));
+        assertEquals(0L, formGroups(2, LEASE_VALUE, 14));
+
+        List<MapRecord<String, Object, Object>> events = events();
+        assertEquals(2, events.size());
+        assertEquals(Map.of("firstGroupID", "13", "members", "0-2,1-2,2-2,3-2,4-2"), events.get(1).getValue());
+    }
+
+    @Test
+    void nodeWithoutTheLeasePopsNothing() {
+        enqueue(1);
+
+        // A former leader with an older fencing token
+        assertNull(formGroups(100, "node-1:6", 11));
+        for (Country country : Country.values()) {
+            assertEquals(1, redis.opsForZSet().zCard(country.toString()));
+        }
+        assertFalse(redis.hasKey(RedisService.GROUP_FORMATIONS));
+    }
+}
@@ -0,0 +1,245 @@
+package com.dreamgames.backendengineeringcasestudy.scheduler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.dreamgames.backendengineeringcasestudy.IntegrationTest;
+import com.dreamgames.backendengineeringcasestudy.config.RedisConfig;
+import com.dreamgames.backendengineeringcasestudy.repository.UserRepositoryCustomImpl;
+import com.dreamgames.backendengineeringcasestudy.service.UserService;
+import com.dreamgames.backendengineeringcasestudy.util.UUIDUtil;
+
+/**
+ * The level up write-behind: scripts/level_up.lua, scripts/drain_level_ups.lua, scripts/ack_level_ups.lua, scripts/init_user_progress.lua and the batch updates,
+ * and the coin changes of the cached progress: scripts/begin_coin_changes.lua and scripts/adjust_user_coins.lua
+ */
+class LevelUpWriteBehindTest extends IntegrationTest {
+
+    private static final List<String> DRAIN_KEYS = List.of("Level Ups", "Level Ups:Flushing", "Level Ups:Flush Lock", "Level Ups:Flushing Batch",
+                                                           "Score Ups", "Score Ups:Flushing");
+    private static final List<String> ACK_KEYS = List.of("Level Ups:Flushing", "Level Ups:Flush Lock", "Level Ups:Flushing Batch", "Score Ups:Flushing");
+
+    private final RedisConfig redisConfig = new RedisConfig();
+    @SuppressWarnings("rawtypes")
+    private final RedisScript<List> drainLevelUpsScript = redisConfig.drainLevelUpsScript();
+    private final RedisScript<Long> ackLevelUpsScript = redisConfig.ackLevelUpsScript();
+    private final RedisScript<Long> initUserProgressScript = redisConfig.initUserProgressScript();
+    @SuppressWarnings("rawtypes")
+    private final RedisScript<List> levelUpScript = redisConfig.levelUpScript();
+    @SuppressWarnings("rawtypes")
+    private final RedisScript<List> beginCoinChangesScript = redisConfig.beginCoinChangesScript();
+    private final RedisScript<Long> adjustUserCoinsScript = redisConfig.adjustUserCoinsScript();
+
+    private StringRedisTemplate redis;
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        redis = emptyStringRedisTemplate();
+        jdbcTemplate = jdbcTemplate();
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object> drain(String nodeID, String batchID) {
+        return redis.execute(drainLevelUpsScript, DRAIN_KEYS, nodeID, "30000", batchID);
+    }
+
+    @Test
+    void drainReturnsTheSameBatchUntilItIsAcknowledged() {
+        redis.opsForHash().increment("Level Ups", "user-1", 2);
+
+        assertEquals(List.of("batch-1", List.of("user-1", "2"), List.of()), drain("node-1", "batch-1"));
+        // The nil reply of the script is read as a single null element
+        assertNull(drain("node-2", "batch-2").get(0), "Only one node can flush at a time");
+
+        // The flush of node-1 fails; once its lock times out, node-2 takes over the same batch and the new level ups stay pending
+        redis.delete("Level Ups:Flush Lock");
+        redis.opsForHash().increment("Level Ups", "user-1", 1);
+        assertEquals(List.of("batch-1", List.of("user-1", "2"), List.of()), drain("node-2", "batch-2"));
+
+        assertEquals(0L, redis.execute(ackLevelUpsScript, ACK_KEYS, "node-1"), "A node cannot acknowledge a batch taken over by another node");
+        assertEquals(1L, redis.execute(ackLevelUpsScript, ACK_KEYS, "node-2"));
+
+        assertEquals(List.of("batch-3", List.of("user-1", "1"), List.of()), drain("node-1", "batch-3"));
+        assertEquals(1L, redis.execute(ackLevelUpsScript, ACK_KEYS, "node-1"));
+        assertEquals(List.of(), drain("node-1", "batch-4"));
+        assertFalse(redis.hasKey("Level Ups:Flush Lock"));
+    }
+
+    @Test
+    void batchIsPersistedOnce() {
+        UUID userID = insertUser(jdbcTemplate, "Turkey", 10, 1000);
+        UserRepositoryCustomImpl userRepository = new UserRepositoryCustomImpl(jdbcTemplate);
+
+        UUID batchID = UUID.randomUUID();
+        assertTrue(userRepository.updateUserLevels(batchID, Map.of(userID, 3L), UserService.COINS_PER_LEVEL, List.of()));
+        assertFalse(userRepository.updateUserLevels(batchID, Map.of(userID, 3L), UserService.COINS_PER_LEVEL, List.of()), "A replayed batch must not be applied again");
+
+        Map<String, Object> progress = userRepository.findProgressByUserId(userID, batchID);
+        assertEquals(13, ((Number) progress.get("level")).intValue());
+        assertEquals(1075, ((Number) progress.get("coins")).longValue());
+        assertEquals(1, ((Number) progress.get("batch_applied")).intValue());
+    }
+
+    @Test
+    void reloadedProgressIncludesThePendingLevelUps() {
+        String userID = UUID.randomUUID().toString();
+        redis.opsForHash().increment("Level Ups", userID, 3);
+        List<Object> batch = drain("node-1", "batch-1");
+        assertEquals("batch-1", batch.get(0));
+        redis.opsForHash().increment("Level Ups", userID, 2);
+
+        List<String> keys = List.of("User Progress:" + userID, "Level Ups", "Level Ups:Flushing", "Level Ups:Flushing Batch", "User Progress:" + userID + ":Coin Changes");
+
+        // The batch being flushed is not persisted yet: both the flushing and the pending level ups are added
+        assertEquals(1L, redis.execute(initUserProgressScript, keys, userID, "10", "100", "600", "25", "batch-1", "0", "0"));
+        assertEquals(List.of("15", "225"), redis.<String, String>opsForHash().multiGet("User Progress:" + userID, List.of("level", "coins")));
+
+        // The batch is already persisted: only the pending level ups are added
+        redis.delete("User Progress:" + userID);
+        assertEquals(1L, redis.execute(initUserProgressScript, keys, userID, "13", "175", "600", "25", "batch-1", "1", "0"));
+        assertEquals(List.of("15", "225"), redis.<String, String>opsForHash().multiGet("User Progress:" + userID, List.of("level", "coins")));
+
+        // Another batch has been taken since the read, so the progress must be read again
+        redis.delete("User Progress:" + userID);
+        assertEquals(-1L, redis.execute(initUserProgressScript, keys, userID, "13", "175", "600", "25", "", "0", "0"));
+        assertFalse(redis.hasKey("User Progress:" + userID));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Long> beginCoinChanges(String... userIDs) {
+        return redis.execute(beginCoinChangesScript, Arrays.stream(userIDs).map(userID -> "User Progress:" + userID + ":Coin Changes").toList(), "600");
+    }
+
+    private Long initProgress(String userID, String coins, String coinChanges) {
+        List<String> keys = List.of("User Progress:" + userID, "Level Ups", "Level Ups:Flushing", "Level Ups:Flushing Batch", "User Progress:" + userID + ":Coin Changes");
+        return redis.execute(initUserProgressScript, keys, userID, "10", coins, "600", "25", "", "0", coinChanges);
+    }
+
+    private Object cachedCoins(String userID) {
+        return redis.opsForHash().get("User Progress:" + userID, "coins");
+    }
+
+    @Test
+    void coinChangeIsAppliedOnceToTheCachedProgress() {
+        // user-1 was cached before the change began, user-2 is reloaded with the changed coins before the change is applied to the cache
+        assertEquals(1L, initProgress("user-1", "1000", "0"));
+        List<Long> coinChanges = beginCoinChanges("user-1", "user-2");
+        assertEquals(List.of(1L, 1L), coinChanges);
+        assertEquals(1L, initProgress("user-2", "900", "1"));
+
+        redis.execute(adjustUserCoinsScript, List.of("User Progress:user-1", "User Progress:user-2", "User Progress:user-3"), "-100", "1", "1", "1");
+        assertEquals("900", cachedCoins("user-1"));
+        // The reloaded progress may include the change, it is removed instead of being adjusted twice; user-3 is not cached
+        assertFalse(redis.hasKey("User Progress:user-2"));
+        assertFalse(redis.hasKey("User Progress:user-3"));
+    }
+
+    @Test
+    void progressReadBeforeACoinChangeBeganIsNotCached() {
+        // The coins are read, then a change begins and is persisted before the read progress is cached
+        beginCoinChanges("user-1");
+        assertEquals(List.of(2L), beginCoinChanges("user-1"));
+        assertEquals(-1L, initProgress("user-1", "1000", "1"));
+        assertFalse(redis.hasKey("User Progress:user-1"));
+
+        // Read again after the change
+        assertEquals(1L, initProgress("user-1", "900", "2"));
+        assertEquals("900", cachedCoins("user-1"));
+    }
+
+    @Test
+    void progressIsReadWithTheStateOfTheBatch() {
+        UUID userID = insertUser(jdbcTemplate, "France", 1, 5000);
+        UserRepositoryCustomImpl userRepository = new UserRepositoryCustomImpl(jdbcTemplate);
+
+        Map<String, Object> progress = userRepository.findProgressByUserId(userID, null);
+        assertEquals(0, ((Number) progress.get("batch_applied")).intValue());
+        assertNull(userRepository.findProgressByUserId(UUID.randomUUID(), null));
+
+        jdbcTemplate.update("INSERT INTO level_up_batch (batch_id, applied_at) VALUES (?, UTC_TIMESTAMP() - INTERVAL 2 DAY)",
+                            (Object) UUIDUtil.toBytes(UUID.randomUUID()));
+        assertTrue(userRepository.updateUserLevels(UUID.randomUUID(), Map.of(userID, 1L), UserService.COINS_PER_LEVEL, List.of()));
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM level_up_batch WHERE applied_at < UTC_TIMESTAMP() - INTERVAL 1 DAY",
+                                                    Integer.class), "The batches older than a day are pruned");
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Long> levelUp(String userID, String groupID) {
+        return redis.execute(levelUpScript, List.of("User Progress:" + userID, "Level Ups", "Score Ups"), userID, "25", "600", "300", groupID);
+    }
+
+    @Test
+    void scoresAreRecordedWithTheLevelUpsAndFlushedTogether() {
+        redis.opsForHash().putAll("User Progress:user-1", Map.of("level", "1", "coins", "0"));
+        redis.opsForHash().putAll("User Progress:user-2", Map.of("level", "1", "coins", "0"));
+
+        // The level ups of user-1 happen while the tournament is active, the one of user-2 after it has ended
+        assertEquals(List.of(2L, 25L, 1L), levelUp("user-1", "7"));
+        assertEquals(List.of(3L, 50L, 1L), levelUp("user-1", "7"));
+        assertEquals(List.of(2L, 25L, 2L), levelUp("user-2", ""));
+
+        List<Object> batch = drain("node-1", "batch-1");
+        assertEquals(Map.of("user-1", "2", "user-2", "1"), pairs(batch.get(1)));
+        assertEquals(Map.of("7:user-1", "2"), pairs(batch.get(2)));
+
+        // A score up of the next batch stays pending until the batch is acknowledged
+        levelUp("user-1", "7");
+        assertEquals(batch, drainAfterLockTimeout("node-2", "batch-2"));
+        assertEquals(1L, redis.execute(ackLevelUpsScript, ACK_KEYS, "node-2"));
+        assertEquals(List.of("batch-3", List.of("user-1", "1"), List.of("7:user-1", "1")), drain("node-1", "batch-3"));
+        assertEquals(1L, redis.execute(ackLevelUpsScript, ACK_KEYS, "node-1"));
+        assertEquals(0L, redis.countExistingKeys(List.of("Score Ups", "Score Ups:Flushing")));
+    }
+
+    private List<Object> drainAfterLockTimeout(String nodeID, String batchID) {
+        redis.delete("Level Ups:Flush Lock");
+        return drain(nodeID, batchID);
+    }
+
+    private static Map<Object, Object> pairs(Object flatPairs) {
+        List<?> list = (List<?>) flatPairs;
+        Map<Object, Object> map = new HashMap<>();
+        for (int i = 0; i < list.size(); i += 2) {
+            map.put(list.get(i), list.get(i + 1));
+        }
+        return map;
+    }
+
+    @Test
+    void scoresArePersistedUntilTheGroupIsRanked() {
+        assumeTournamentInsertsAllowed();
+        UUID userID = insertUser(jdbcTemplate, "Germany", 5, 1000);
+        UUID rankedUserID = insertUser(jdbcTemplate, "France", 5, 1000);
+        long groupID = insertGroup(jdbcTemplate, LocalDate.of(2001, 1, 2));
+        long rankedGroupID = insertGroup(jdbcTemplate, LocalDate.of(2001, 1, 2));
+        jdbcTemplate.update("INSERT INTO user_in_tournament (group_id, user_id, score) VALUES (?, ?, 4)", groupID, UUIDUtil.toBytes(userID));
+        jdbcTemplate.update("INSERT INTO user_in_tournament (group_id, user_id, score, final_rank) VALUES (?, ?, 4, 1)",
+                            rankedGroupID, UUIDUtil.toBytes(rankedUserID));
+
+        // The tournament of the groups has ended already, the scores are added until it is ranked
+        UserRepositoryCustomImpl userRepository = new UserRepositoryCustomImpl(jdbcTemplate);
+        assertTrue(userRepository.updateUserLevels(UUID.randomUUID(), Map.of(userID, 3L, rankedUserID, 2L), UserService.COINS_PER_LEVEL,
+                                                   List.of(new Object[] { groupID, userID, 3L }, new Object[] { rankedGroupID, rankedUserID, 2L })));
+
+        assertEquals(7, jdbcTemplate.queryForObject("SELECT score FROM user_in_tournament WHERE user_id = ?", Integer.class, (Object) UUIDUtil.toBytes(userID)));
+        assertEquals(4, jdbcTemplate.queryForObject("SELECT score FROM user_in_tournament WHERE user_id = ?", Integer.class, 
+                                                    (Object) UUIDUtil.toBytes(rankedUserID)), "The score of a ranked group does not change");
+        assertEquals(7, jdbcTemplate.queryForObject("SELECT level FROM user WHERE user_id = ?", Integer.class, (Object) UUIDUtil.toBytes(rankedUserID)));
+    }
+}
@@ -0,0 +1,142 @@
+package com.dreamgames.backendengineeringcasestudy.scheduler;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+/** The in-process country waiting queues of the 'local' matchmaking mode */
+class LocalMatchmakerTest {
+
+    private static final List<String> COUNTRIES = List.of("A", "B", "C");
+
+    private final LocalMatchmaker matchmaker = new LocalMatchmaker(COUNTRIES);
+
+    @Test
+    void readyOnceEveryQueueHasAUser() {
+        assertFalse(matchmaker.enqueue("A", "a1"));
+        assertFalse(matchmaker.enqueue("A", "a2"));
+        assertFalse(matchmaker.enqueue("B", "b1"));
+        assertFalse(matchmaker.enqueue("Unknown", "x1"));
+        assertTrue(matchmaker.enqueue("C", "c1"));
+
+        assertEquals(1, matchmaker.pollGroups(10).size());
+        assertFalse(matchmaker.isReady());
+    }
+
+    @Test
+    void groupsAreFormedInTheOrderOfEntry() {
+        for (int i = 1; i <= 3; i++) {
+            for (String country : COUNTRIES) {
+                matchmaker.enqueue(country, country.toLowerCase() + i);
+            }
+        }
+
+        List<String[]> groups = matchmaker.pollGroups(2);
+        assertEquals(2, groups.size());
+        assertArrayEquals(new String[] {"a1", "b1", "c1"}, groups.get(0));
+        assertArrayEquals(new String[] {"a2", "b2", "c2"}, groups.get(1));
+        assertArrayEquals(new String[] {"a3", "b3", "c3"}, matchmaker.pollGroups(2).get(0));
+        assertTrue(matchmaker.pollGroups(2).isEmpty());
+    }
+
+    @Test
+    void userIsQueuedOnlyOnce() {
+        matchmaker.enqueue("A", "a1");
+        matchmaker.enqueue("A", "a1");
+        matchmaker.enqueue("B", "b1");
+        matchmaker.enqueue("C", "c1");
+
+        assertEquals(1, matchmaker.pollGroups(10).size());
+
+        // A polled user can enter again
+        matchmaker.enqueue("A", "a1");
+        matchmaker.enqueue("B", "b2");
+        matchmaker.enqueue("C", "c2");
+        assertArrayEquals(new String[] {"a1", "b2", "c2"}, matchmaker.pollGroups(10).get(0));
+    }
+
+    @Test
+    void unclaimedMembersAreRequeuedAtTheHeads() {
+        for (int i = 1; i <= 2; i++) {
+            for (String country : COUNTRIES) {
+                matchmaker.enqueue(country, country.toLowerCase() + i);
+            }
+        }
+        String[] group = matchmaker.pollGroups(1).get(0);
+
+        // b1 has left its queue, the others are put back ahead of the later entries
+        group[1] = null;
+        matchmaker.requeue(group);
+        assertArrayEquals(new String[] {"a1", "b2", "c1"}, matchmaker.pollGroups(10).get(0));
+        assertFalse(matchmaker.isReady());
+    }
+
+    @Test
+    void reloadReplacesTheQueues() {
+        matchmaker.enqueue("A", "a1");
+        matchmaker.enqueue("B", "b1");
+        matchmaker.enqueue("C", "c1");
+
+        // a1 has left the queue in Redis, a2 has entered without its message being delivered
+        matchmaker.reload(Map.of("A", List.of("a2"), "B", List.of("b1"), "C", List.of()));
+        assertFalse(matchmaker.isReady());
+        assertTrue(matchmaker.enqueue("C", "c1"));
+        assertArrayEquals(new String[] {"a2", "b1", "c1"}, matchmaker.pollGroups(10).get(0));
+
+        matchmaker.enqueue("A", "a3");
+        matchmaker.clear();
+        assertFalse(matchmaker.isReady());
+        assertTrue(matchmaker.pollGroups(10).isEmpty());
+    }
+
+    @Test
+    void concurrentEntriesAreEachMatchedOnce() throws Exception {
+        int usersPerCountry = 10000;
+        ExecutorService executor = Executors.newFixedThreadPool(COUNTRIES.size());
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> producers = new ArrayList<>();
+        for (String country : COUNTRIES) {
+            producers.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < usersPerCountry; i++) {
+                    matchmaker.enqueue(country, country + i);
+                }
+                return null;
+            }));
+        }
+
+        // The former thread polls while the entries arrive
+        start.countDown();
+        Set<String> matchedUsers = new HashSet<>();
+        int groups = 0;
+        while (groups < usersPerCountry) {
+            for (String[] group : matchmaker.pollGroups(100)) {
+                for (int c = 0; c < COUNTRIES.size(); c++) {
+                    assertTrue(group[c].startsWith(COUNTRIES.get(c)));
+                    assertTrue(matchedUsers.add(group[c]));
+                }
+                groups++;
+            }
+        }
+        for (Future<?> producer : producers) {
+            producer.get();
+        }
+        executor.shutdown();
+
+        assertFalse(matchmaker.isReady());
+        assertEquals(usersPerCountry * COUNTRIES.size(), matchedUsers.size());
+    }
+}
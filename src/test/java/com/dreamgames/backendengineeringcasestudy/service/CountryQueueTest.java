@@ -0,0 +1,152 @@
+package com.dreamgames.backendengineeringcasestudy.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import com.dreamgames.backendengineeringcasestudy.IntegrationTest;
+import com.dreamgames.backendengineeringcasestudy.config.RedisConfig;
+import com.dreamgames.backendengineeringcasestudy.enums.Country;
+
+/** Entering and leaving the country waiting queues: scripts/enter_country_queue.lua and scripts/claim_group_members.lua */
+class CountryQueueTest extends IntegrationTest {
+
+    // Channels of the tests only, the channels are shared by every Redis database
+    private static final String GROUP_FORMATION_CHANNEL = "Test:" + RedisService.GROUP_FORMATION_CHANNEL;
+    private static final String QUEUE_ENTRIES_CHANNEL = "Test:" + RedisService.QUEUE_ENTRIES_CHANNEL;
+    private static final List<String> COUNTRY_QUEUES = Arrays.stream(Country.values()).map(Country::toString).toList();
+    private static final String LEASE_VALUE = "node-1:7";
+
+    private final RedisConfig redisConfig = new RedisConfig();
+    private final RedisScript<Long> enterCountryQueueScript = redisConfig.enterCountryQueueScript();
+    @SuppressWarnings("rawtypes")
+    private final RedisScript<List> claimGroupMembersScript = redisConfig.claimGroupMembersScript();
+
+    private StringRedisTemplate redis;
+    private RedisMessageListenerContainer listenerContainer;
+    private final LinkedBlockingQueue<String> groupFormationMessages = new LinkedBlockingQueue<>();
+    private final LinkedBlockingQueue<String> queueEntryMessages = new LinkedBlockingQueue<>();
+
+    @BeforeEach
+    void setUp() {
+        redis = emptyStringRedisTemplate();
+
+        listenerContainer = new RedisMessageListenerContainer();
+        listenerContainer.setConnectionFactory(redis.getConnectionFactory());
+        listenerContainer.addMessageListener((message, pattern) -> groupFormationMessages.add(new String(message.getBody())),
+                                             new ChannelTopic(GROUP_FORMATION_CHANNEL));
+        listenerContainer.addMessageListener((message, pattern) -> queueEntryMessages.add(new String(message.getBody())),
+                                             new ChannelTopic(QUEUE_ENTRIES_CHANNEL));
+        listenerContainer.afterPropertiesSet();
+        listenerContainer.start();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        listenerContainer.destroy();
+    }
+
+    private long enter(Country country, String userID, boolean localMatchmaking) {
+        List<String> keys = new ArrayList<>();
+        keys.add(country.toString());
+        keys.addAll(COUNTRY_QUEUES);
+        return redis.execute(enterCountryQueueScript, keys, userID, "1000", GROUP_FORMATION_CHANNEL, localMatchmaking ? QUEUE_ENTRIES_CHANNEL : "");
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Long> claim(String leaseValue, long firstGroupID, String... userIDs) {
+        List<String> keys = new ArrayList<>();
+        keys.add(LeaderElectionService.LEADER_LEASE);
+        keys.add(RedisService.GROUP_FORMATIONS);
+        keys.addAll(COUNTRY_QUEUES);
+
+        List<String> args = new ArrayList<>(List.of(leaseValue, String.valueOf(firstGroupID)));
+        args.addAll(Arrays.asList(userIDs));
+        return redis.execute(claimGroupMembersScript, keys, args.toArray());
+    }
+
+    @Test
+    void groupFormersAreWokenUpOnceEveryQueueHasAUser() throws InterruptedException {
+        for (Country country : Country.values()) {
+            // Not woken up while a queue is empty
+            assertNull(groupFormationMessages.poll(100, TimeUnit.MILLISECONDS));
+            assertEquals(1, enter(country, "user-" + country.ordinal(), false));
+        }
+        assertEquals("1", groupFormationMessages.poll(5, TimeUnit.SECONDS));
+        assertTrue(queueEntryMessages.isEmpty());
+    }
+
+    @Test
+    void userEntersTheQueueOnlyOnce() throws InterruptedException {
+        assertEquals(1, enter(Country.FRANCE, "user-1", true));
+        assertEquals(0, enter(Country.FRANCE, "user-1", true));
+        assertEquals(1000.0, redis.opsForZSet().score(Country.FRANCE.toString(), "user-1"));
+
+        // In the local matchmaking mode only the first entry is forwarded to the matchmaker
+        assertEquals("France|user-1", queueEntryMessages.poll(5, TimeUnit.SECONDS));
+        assertNull(queueEntryMessages.poll(100, TimeUnit.MILLISECONDS));
+        assertTrue(groupFormationMessages.isEmpty());
+    }
+
+    @Test
+    void groupIsClaimedOnlyWithEveryMemberInTheQueues() {
+        redis.opsForValue().set(LeaderElectionService.LEADER_LEASE, LEASE_VALUE);
+        String[] members = new String[COUNTRY_QUEUES.size()];
+        for (Country country : Country.values()) {
+            members[country.ordinal()] = "user-" + country.ordinal();
+            enter(country, members[country.ordinal()], true);
+        }
+        enter(Country.TURKEY, "user-5", true);
+        enter(Country.THE_UNITED_KINGDOM, "user-7", true);
+
+        // The second group misses its second, fourth and fifth members, so none of its members is removed
+        String[] incompleteGroup = {"user-5", "user-6", "user-7", "user-8", "user-9"};
+        String[] groups = new String[members.length * 2];
+        System.arraycopy(members, 0, groups, 0, members.length);
+        System.arraycopy(incompleteGroup, 0, groups, members.length, members.length);
+        assertEquals(List.of(0L, 0b11010L), claim(LEASE_VALUE, 11, groups));
+
+        for (String queue : COUNTRY_QUEUES) {
+            boolean keepsIncompleteMember = queue.equals(Country.TURKEY.toString()) || queue.equals(Country.THE_UNITED_KINGDOM.toString());
+            assertEquals(keepsIncompleteMember ? 1 : 0, redis.opsForZSet().zCard(queue));
+        }
+        List<MapRecord<String, Object, Object>> events = redis.opsForStream().read(StreamOffset.fromStart(RedisService.GROUP_FORMATIONS));
+        assertEquals(1, events.size());
+        assertEquals(Map.of("firstGroupID", "11", "members", String.join(",", members)), events.get(0).getValue());
+    }
+
+    @Test
+    void nodeWithoutTheLeaseClaimsNothing() {
+        redis.opsForValue().set(LeaderElectionService.LEADER_LEASE, LEASE_VALUE);
+        String[] members = new String[COUNTRY_QUEUES.size()];
+        for (Country country : Country.values()) {
+            members[country.ordinal()] = "user-" + country.ordinal();
+            enter(country, members[country.ordinal()], true);
+        }
+
+        // A former leader with an older fencing token
+        assertNull(claim("node-1:6", 11, members).get(0));
+        for (String queue : COUNTRY_QUEUES) {
+            assertEquals(1, redis.opsForZSet().zCard(queue));
+        }
+        assertFalse(Boolean.TRUE.equals(redis.hasKey(RedisService.GROUP_FORMATIONS)));
+    }
+}
@@ -0,0 +1,69 @@
+package com.dreamgames.backendengineeringcasestudy.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import com.dreamgames.backendengineeringcasestudy.IntegrationTest;
+import com.dreamgames.backendengineeringcasestudy.config.RedisConfig;
+import com.dreamgames.backendengineeringcasestudy.dto.LeaderboardDTO;
+import com.dreamgames.backendengineeringcasestudy.util.ValueMapper;
+
+/** Reading a cached group leaderboard: scripts/read_group_leaderboard.lua and ValueMapper.groupLeaderboardToDTO */
+class GroupLeaderboardTest extends IntegrationTest {
+
+    private static final List<String> KEYS = List.of("1:Members", "1:Scores");
+
+    @SuppressWarnings("rawtypes")
+    private final RedisScript<List> readGroupLeaderboardScript = new RedisConfig().readGroupLeaderboardScript();
+
+    private StringRedisTemplate redis;
+
+    @BeforeEach
+    void setUp() {
+        redis = emptyStringRedisTemplate();
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object> read() {
+        return redis.execute(readGroupLeaderboardScript, KEYS, "300", "150");
+    }
+
+    @Test
+    void leaderboardIsReadInTheOrderOfTheScores() {
+        redis.opsForHash().put("1:Members", "user-1", "Turkey|alice");
+        redis.opsForHash().put("1:Members", "user-2", "France|bob");
+        redis.opsForZSet().add("1:Scores", "user-1", 3);
+        redis.opsForZSet().add("1:Scores", "user-2", 7);
+
+        assertEquals(List.of("user-2", "France|bob", "7", "user-1", "Turkey|alice", "3"), read());
+    }
+
+    @Test
+    void memberWithoutRecordKeepsTheTriplesAligned() {
+        redis.opsForHash().put("1:Members", "user-1", "Turkey|alice");
+        redis.opsForHash().put("1:Members", "user-3", "Germany|carol");
+        redis.opsForZSet().add("1:Scores", "user-1", 3);
+        redis.opsForZSet().add("1:Scores", "user-2", 5);
+        redis.opsForZSet().add("1:Scores", "user-3", 1);
+
+        List<Object> leaderboard = read();
+        assertEquals(List.of("user-2", "", "5", "user-1", "Turkey|alice", "3", "user-3", "Germany|carol", "1"), leaderboard);
+
+        LeaderboardDTO expected = new LeaderboardDTO("group");
+        expected.addElementToLeaderboard("user-1", "alice", "Turkey", 3);
+        expected.addElementToLeaderboard("user-3", "carol", "Germany", 1);
+        assertEquals(expected, ValueMapper.groupLeaderboardToDTO(leaderboard));
+    }
+
+    @Test
+    void leaderboardThatIsNotCachedIsNil() {
+        assertNull(read().get(0));
+    }
+}
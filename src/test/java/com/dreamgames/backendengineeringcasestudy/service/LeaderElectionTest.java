@@ -0,0 +1,166 @@
+package com.dreamgames.backendengineeringcasestudy.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.dreamgames.backendengineeringcasestudy.IntegrationTest;
+import com.dreamgames.backendengineeringcasestudy.config.RedisConfig;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/** The group formation leadership: scripts/acquire_leadership.lua, and LeaderElectionService with several nodes on the same Redis server */
+class LeaderElectionTest extends IntegrationTest {
+
+    private static final List<String> KEYS = List.of(LeaderElectionService.LEADER_LEASE, "Group Formation:Fencing Token", "Group Formation:Last Renewal");
+    private static final int NODES = 5;
+    private static final int ROUNDS = 20;
+
+    private final RedisConfig redisConfig = new RedisConfig();
+    @SuppressWarnings("rawtypes")
+    private final RedisScript<List> acquireLeadershipScript = redisConfig.acquireLeadershipScript();
+
+    private StringRedisTemplate redis;
+
+    @BeforeEach
+    void setUp() {
+        redis = emptyStringRedisTemplate();
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Long> acquire(String nodeID, long leaseTime) {
+        return redis.execute(acquireLeadershipScript, KEYS, nodeID, String.valueOf(leaseTime));
+    }
+
+    private LeaderElectionService node(long leaseTime) {
+        LeaderElectionService node = new LeaderElectionService(redis, acquireLeadershipScript, redisConfig.releaseLeaseScript(), new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(node, "leaseTime", leaseTime);
+        return node;
+    }
+
+    @Test
+    void everyAcquisitionIssuesANewFencingToken() {
+        assertEquals(List.of(1L, 0L), acquire("node-1", 3000));
+        assertEquals("node-1:1", redis.opsForValue().get(LeaderElectionService.LEADER_LEASE));
+
+        // A renewal keeps the token, another node cannot acquire the lease while it is held
+        assertEquals(List.of(1L, -1L), acquire("node-1", 3000));
+        assertEquals(List.of(0L, -1L), acquire("node-2", 3000));
+
+        // Once the lease expires, the next holder gets a greater token and the time since the last renewal of the previous holder
+        redis.delete(LeaderElectionService.LEADER_LEASE);
+        List<Long> acquired = acquire("node-2", 3000);
+        assertEquals(2L, acquired.get(0));
+        assertTrue(acquired.get(1) >= 0);
+        assertEquals("node-2:2", redis.opsForValue().get(LeaderElectionService.LEADER_LEASE));
+    }
+
+    @Test
+    void exactlyOneOfTheNodesLeadsAtATime() throws Exception {
+        List<LeaderElectionService> nodes = new ArrayList<>();
+        for (int i = 0; i < NODES; i++) {
+            nodes.add(node(3000));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(NODES);
+        try {
+            String previousLeaseValue = null;
+            for (int round = 0; round < ROUNDS; round++) {
+                // Every node renews at the same time, as their schedulers would
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<?>> renewals = new ArrayList<>();
+                for (LeaderElectionService node : nodes) {
+                    renewals.add(executor.submit(() -> {
+                        start.await();
+                        node.renewLeadership();
+                        return null;
+                    }));
+                }
+                start.countDown();
+                for (Future<?> renewal : renewals) {
+                    renewal.get();
+                }
+
+                List<LeaderElectionService> leaders = nodes.stream().filter(LeaderElectionService::isLeader).toList();
+                assertEquals(1, leaders.size(), "Round %d".formatted(round));
+                LeaderElectionService leader = leaders.get(0);
+                assertEquals(redis.opsForValue().get(LeaderElectionService.LEADER_LEASE), leader.getLeaseValue());
+
+                // Every other round the leader hands the lease over on shutdown, and is replaced by a new node
+                if (round % 2 == 1) {
+                    assertNotEquals(previousLeaseValue, leader.getLeaseValue());
+                    previousLeaseValue = leader.getLeaseValue();
+                    leader.releaseLeadership();
+                    assertFalse(leader.isLeader());
+                    nodes.set(nodes.indexOf(leader), node(3000));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(String.valueOf(ROUNDS / 2), redis.opsForValue().get("Group Formation:Fencing Token"));
+    }
+
+    @Test
+    void leaderThatCannotRenewStepsDownBeforeItIsReplaced() throws InterruptedException {
+        LeaderElectionService pausedLeader = node(300);
+        LeaderElectionService follower = node(300);
+        pausedLeader.renewLeadership();
+        follower.renewLeadership();
+        assertTrue(pausedLeader.isLeader());
+        assertFalse(follower.isLeader());
+
+        // The paused leader misses its renewals, its lease expires both locally and in Redis
+        Thread.sleep(400);
+        assertNull(pausedLeader.getLeaseValue());
+        follower.renewLeadership();
+        assertEquals(follower.getLeaseValue(), redis.opsForValue().get(LeaderElectionService.LEADER_LEASE));
+        assertTrue(follower.getLeaseValue().endsWith(":2"));
+    }
+
+    @Test
+    void tenureAndHandoffLatencyAreMetered() throws InterruptedException {
+        SimpleMeterRegistry leaderMeters = new SimpleMeterRegistry();
+        SimpleMeterRegistry followerMeters = new SimpleMeterRegistry();
+        LeaderElectionService leader = new LeaderElectionService(redis, acquireLeadershipScript, redisConfig.releaseLeaseScript(), leaderMeters);
+        LeaderElectionService follower = new LeaderElectionService(redis, acquireLeadershipScript, redisConfig.releaseLeaseScript(), followerMeters);
+        ReflectionTestUtils.setField(leader, "leaseTime", 300L);
+        ReflectionTestUtils.setField(follower, "leaseTime", 300L);
+        leader.registerMeters();
+        follower.registerMeters();
+
+        leader.renewLeadership();
+        follower.renewLeadership();
+        assertEquals(1, leaderMeters.get("group.formation.leader").gauge().value());
+        assertEquals(0, followerMeters.get("group.formation.leader").gauge().value());
+
+        // The lease expires, the follower takes over once the leader's last renewal is older than the lease
+        Thread.sleep(400);
+        assertEquals(0, leaderMeters.get("group.formation.leader").gauge().value());
+        assertFalse(leader.isLeader());
+        follower.renewLeadership();
+        assertEquals(1, followerMeters.get("group.formation.leader").gauge().value());
+
+        assertEquals(1, leaderMeters.get("group.formation.leader.tenure").timer().count());
+        assertTrue(leaderMeters.get("group.formation.leader.tenure").timer().totalTime(TimeUnit.MILLISECONDS) >= 300);
+        // The handoff latency of the follower spans the missed renewals of the leader
+        assertEquals(1, followerMeters.get("group.formation.leader.handoff").timer().count());
+        assertTrue(followerMeters.get("group.formation.leader.handoff").timer().totalTime(TimeUnit.MILLISECONDS) >= 300);
+    }
+}